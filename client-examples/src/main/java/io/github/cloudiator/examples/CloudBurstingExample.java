@@ -3,11 +3,18 @@ package io.github.cloudiator.examples;
 import de.uniulm.omi.cloudiator.colosseum.client.Client;
 import de.uniulm.omi.cloudiator.colosseum.client.ClientBuilder;
 import de.uniulm.omi.cloudiator.colosseum.client.entities.*;
-import io.github.cloudiator.examples.internal.KairosDbConnection;
+import io.github.cloudiator.examples.internal.MetricCursor;
+import io.github.cloudiator.examples.internal.ScatterGatherQuery;
+import io.github.cloudiator.examples.internal.Waiter;
+import io.github.cloudiator.examples.internal.WaiterBuilder;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * A very simple example of execution a cloud bursting.
@@ -18,6 +25,10 @@ public class CloudBurstingExample {
 
     private final static String METRICNAME = "cpu_usage";
 
+    private final static int FLEET_PARALLELISM = 16;
+    private final static long FLEET_TIMEOUT_SECONDS = 30;
+    private final static long POLL_INTERVAL_SECONDS = 10;
+
     private final static String COLOSSEUM_ENDPOINT = "http://localhost:9000/api";
     private final static String COLOSSEUM_USERNAME = "john.doe@example.com";
     private final static String COLOSSEUM_PASSWORD = "admin";
@@ -51,49 +62,64 @@ public class CloudBurstingExample {
         Client client = ClientBuilder.getNew()
             .credentials(COLOSSEUM_USERNAME, COLOSSEUM_TENANT, COLOSSEUM_PASSWORD)
             .url(COLOSSEUM_ENDPOINT).build();
+        final Waiter waiter = new WaiterBuilder().createWaiter();
 
         ApplicationComponent applicationComponent = null;
         boolean burst = false;
 
+        //one kairos endpoint per virtual machine, each polled incrementally by its own cursor
+        final ScatterGatherQuery fleet = new ScatterGatherQuery(8080, FLEET_PARALLELISM,
+            FLEET_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        final Map<String, MetricCursor> cursors = new ConcurrentHashMap<>();
+
         while (!burst) {
             try {
                 final LifecycleComponent lifecycleComponent =
-                    client.controller(LifecycleComponent.class)
-                        .waitAndGetSingle(input -> COMPONENT_NAME.equals(input.getName()),
-                            365, TimeUnit.DAYS).get();
+                    waiter.awaitSingle(client, LifecycleComponent.class,
+                        input -> COMPONENT_NAME.equals(input.getName()), 365, TimeUnit.DAYS)
+                        .get();
 
-                applicationComponent = client.controller(ApplicationComponent.class)
-                    .waitAndGetSingle(
-                        input -> lifecycleComponent.getId().equals(input.getComponent()), 365,
-                        TimeUnit.DAYS).get();
+                applicationComponent = waiter.awaitSingle(client, ApplicationComponent.class,
+                    input -> lifecycleComponent.getId().equals(input.getComponent()), 365,
+                    TimeUnit.DAYS).get();
 
                 final ApplicationComponent finalApplicationComponent = applicationComponent;
-                final Instance instance = client.controller(Instance.class).waitAndGetSingle(
-                    input -> finalApplicationComponent.getId()
-                        .equals(input.getApplicationComponent()), 365, TimeUnit.DAYS).get();
-
-                final VirtualMachine virtualMachine = client.controller(VirtualMachine.class)
-                    .waitAndGetSingle(input -> instance.getVirtualMachine().equals(input.getId()),
-                        365, TimeUnit.DAYS).get();
-
-                final IpAddress ipAddress = client.controller(IpAddress.class).waitAndGetSingle(
-                    input -> virtualMachine.getId().equals(input.getVirtualMachine()) && "PUBLIC"
-                        .equals(input.getIpType()), 365, TimeUnit.DAYS).get();
-
-                KairosDbConnection kairos = new KairosDbConnection(ipAddress.getIp(), 8080);
-                List<Double> aggregatedValues =
-                    kairos.getAggregatedValue(METRICNAME, new ArrayList<>(), 1200);
-
-                for (Double value : aggregatedValues) {
-                    if (value > THRESHOLD) {
-                        burst = true;
-                    }
+                final Set<Long> virtualMachines = client.controller(Instance.class).getList()
+                    .stream().filter(input -> finalApplicationComponent.getId()
+                        .equals(input.getApplicationComponent()))
+                    .map(Instance::getVirtualMachine).collect(Collectors.toSet());
+
+                final List<String> ips = client.controller(IpAddress.class).getList().stream()
+                    .filter(input -> virtualMachines.contains(input.getVirtualMachine())
+                        && "PUBLIC".equals(input.getIpType())).map(IpAddress::getIp)
+                    .collect(Collectors.toList());
+
+                fleet.retainEndpoints(ips);
+                cursors.keySet().retainAll(ips);
+
+                final ScatterGatherQuery.Result result = fleet.gather((ip, connection) -> {
+                    MetricCursor cursor = cursors.computeIfAbsent(ip,
+                        key -> new MetricCursor(connection, METRICNAME, new ArrayList<>(), 1200));
+                    cursor.poll();
+                    return cursor.values();
+                });
+
+                for (Map.Entry<String, Throwable> failure : result.getFailures().entrySet()) {
+                    System.err.println(
+                        "Could not query " + failure.getKey() + ": " + failure.getValue());
+                }
+
+                if (!result.isEmpty() && result.max() > THRESHOLD) {
+                    burst = true;
+                } else {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(POLL_INTERVAL_SECONDS));
                 }
             } catch (Throwable t) {
                 t.printStackTrace();
             }
 
         }
+        fleet.close();
 
         System.out.println("Trigger Bursting");
 
@@ -121,19 +147,16 @@ public class CloudBurstingExample {
                 .tenant(1L).user(CLOUDCREDENTIAL_USERNAME).build());
 
         //wait for the location
-        Location location = client.controller(Location.class)
-            .waitAndGetSingle(input -> LOCATION_ID.equals(input.getSwordId()), 3,
-                TimeUnit.MINUTES).get();
+        Location location = waiter.awaitSingle(client, Location.class,
+            input -> LOCATION_ID.equals(input.getSwordId()), 3, TimeUnit.MINUTES).get();
 
         //wait for the hardware
-        Hardware hardware = client.controller(Hardware.class)
-            .waitAndGetSingle(input -> HARDWARE_ID.equals(input.getSwordId()), 3,
-                TimeUnit.MINUTES).get();
+        Hardware hardware = waiter.awaitSingle(client, Hardware.class,
+            input -> HARDWARE_ID.equals(input.getSwordId()), 3, TimeUnit.MINUTES).get();
 
         //wait for the image
-        Image image = client.controller(Image.class)
-            .waitAndGetSingle(input -> IMAGE_ID.equals(input.getSwordId()), 3, TimeUnit.MINUTES)
-            .get();
+        Image image = waiter.awaitSingle(client, Image.class,
+            input -> IMAGE_ID.equals(input.getSwordId()), 3, TimeUnit.MINUTES).get();
 
         //update the image
         image.setDefaultLoginPassword(IMAGE_PASSWORD);
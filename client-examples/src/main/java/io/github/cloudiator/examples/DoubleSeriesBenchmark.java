@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples;
+
+import io.github.cloudiator.examples.internal.DoubleSeries;
+import io.github.cloudiator.examples.internal.MicroBenchmark;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the sliding window of the {@link io.github.cloudiator.examples.internal.MetricCursor}
+ * kept in a {@link DoubleSeries} with the deque of boxed samples it used before.
+ * <p>
+ * Every operation is one poll of the cursor: appending the new points, evicting the points
+ * which left the window and reading the maximum and the values of the window. The points are
+ * generated up front, so only the window is measured, not the KairosDB query. Takes the
+ * window size and the points per poll as optional arguments.
+ */
+public class DoubleSeriesBenchmark {
+
+    private final static int DEFAULT_WINDOW = 1200;
+    private final static int DEFAULT_POINTS_PER_POLL = 10;
+    private final static int ROUNDS = 10;
+    private final static int POLLS_PER_ROUND = 20000;
+    private final static int SOURCE_SIZE = 1 << 16;
+
+    public static void main(String[] args) {
+        final int window = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_WINDOW;
+        final int pointsPerPoll =
+            args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_POINTS_PER_POLL;
+
+        final double[] source = new double[SOURCE_SIZE];
+        final Random random = new Random(0);
+        for (int i = 0; i < source.length; i++) {
+            source[i] = random.nextDouble() * 100;
+        }
+
+        System.out.println(
+            "Window of " + window + " points, " + pointsPerPoll + " new points per poll");
+        final MicroBenchmark benchmark = new MicroBenchmark(ROUNDS, POLLS_PER_ROUND);
+        System.out.println(
+            benchmark.measure("deque of boxed samples", new SampleDequeWindow(source, window,
+                pointsPerPoll)::poll));
+        System.out.println(
+            benchmark.measure("DoubleSeries", new DoubleSeriesWindow(source, window,
+                pointsPerPoll)::poll));
+    }
+
+    /**
+     * The points are one second apart, the window holds the given number of points.
+     */
+    private static abstract class Window {
+
+        private final double[] source;
+        private final int pointsPerPoll;
+        final long windowMillis;
+        private long timestamp = 0;
+
+        Window(double[] source, int window, int pointsPerPoll) {
+            this.source = source;
+            this.pointsPerPoll = pointsPerPoll;
+            this.windowMillis = window * 1000L;
+        }
+
+        double poll() {
+            for (int i = 0; i < pointsPerPoll; i++) {
+                add(timestamp, source[(int) (timestamp / 1000) & (SOURCE_SIZE - 1)]);
+                timestamp += 1000;
+            }
+            removeBefore(timestamp - windowMillis);
+            return max() + values();
+        }
+
+        abstract void add(long timestamp, double value);
+
+        abstract void removeBefore(long timestamp);
+
+        abstract double max();
+
+        /**
+         * @return the first of the copied values.
+         */
+        abstract double values();
+    }
+
+
+    /**
+     * The window as the cursor kept it before the {@link DoubleSeries}.
+     */
+    private static class SampleDequeWindow extends Window {
+
+        private final Deque<Sample> samples = new ArrayDeque<>();
+
+        SampleDequeWindow(double[] source, int window, int pointsPerPoll) {
+            super(source, window, pointsPerPoll);
+        }
+
+        @Override
+        void add(long timestamp, double value) {
+            samples.addLast(new Sample(timestamp, value));
+        }
+
+        @Override
+        void removeBefore(long timestamp) {
+            while (!samples.isEmpty() && samples.peekFirst().timestamp < timestamp) {
+                samples.removeFirst();
+            }
+        }
+
+        @Override
+        double max() {
+            double max = Double.NEGATIVE_INFINITY;
+            for (Sample sample : samples) {
+                max = Math.max(max, sample.value);
+            }
+            return max;
+        }
+
+        @Override
+        double values() {
+            List<Double> values = new ArrayList<>(samples.size());
+            for (Sample sample : samples) {
+                values.add(sample.value);
+            }
+            return values.get(0);
+        }
+    }
+
+
+    private static class Sample {
+        private final long timestamp;
+        private final double value;
+
+        private Sample(long timestamp, double value) {
+            this.timestamp = timestamp;
+            this.value = value;
+        }
+    }
+
+
+    private static class DoubleSeriesWindow extends Window {
+
+        private final DoubleSeries series = new DoubleSeries();
+
+        DoubleSeriesWindow(double[] source, int window, int pointsPerPoll) {
+            super(source, window, pointsPerPoll);
+        }
+
+        @Override
+        void add(long timestamp, double value) {
+            series.add(timestamp, value);
+        }
+
+        @Override
+        void removeBefore(long timestamp) {
+            series.removeBefore(timestamp);
+        }
+
+        @Override
+        double max() {
+            return series.max();
+        }
+
+        @Override
+        double values() {
+            return series.toValueArray()[0];
+        }
+    }
+}
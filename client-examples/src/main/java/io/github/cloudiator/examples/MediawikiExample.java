@@ -22,6 +22,19 @@ import de.uniulm.omi.cloudiator.colosseum.client.entities.enums.*;
 import de.uniulm.omi.cloudiator.colosseum.client.entities.internal.KeyValue;
 import io.github.cloudiator.examples.internal.CloudHelper;
 import io.github.cloudiator.examples.internal.ConfigurationLoader;
+import io.github.cloudiator.examples.internal.Deployment;
+import io.github.cloudiator.examples.internal.DeploymentGraph;
+import io.github.cloudiator.examples.internal.EntityCache;
+import io.github.cloudiator.examples.internal.InstanceGroupWaiter;
+import io.github.cloudiator.examples.internal.PlacementService;
+import io.github.cloudiator.examples.internal.Reconciler;
+import io.github.cloudiator.examples.internal.ScalingRules;
+import io.github.cloudiator.examples.internal.TeardownEngine;
+import io.github.cloudiator.examples.internal.Topology;
+import io.github.cloudiator.examples.internal.TopologyBuilder;
+import io.github.cloudiator.examples.internal.TopologyComponentBuilder;
+import io.github.cloudiator.examples.internal.TopologyExecutor;
+import io.github.cloudiator.examples.internal.Waiter;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -47,6 +60,12 @@ public class MediawikiExample {
     private static final boolean monitoringEnabled = true;
     private static final boolean cleanup = false;
 
+    static final String STARTED_BY_TAG = "started_by";
+    static final String STARTED_BY = "colosseum_example";
+
+    private static final int PROVISIONING_PARALLELISM = 8;
+    private static final long INSTANCE_TIMEOUT_MIN = 30;
+
 
     public static void main(String[] args) throws IOException {
 
@@ -65,252 +84,169 @@ public class MediawikiExample {
 
         Client client = ConfigurationLoader.createClient(properties);
 
-        final CloudHelper cloudHelper = new CloudHelper(client);
+        final PlacementService placementService =
+                ConfigurationLoader.createPlacementService(properties);
+        final CloudHelper cloudHelper = new CloudHelper(client,
+                ConfigurationLoader.isReconcileEnabled(properties),
+                ConfigurationLoader.createEntityIdCache(properties).orNull(), placementService);
+        final Reconciler reconciler = cloudHelper.getReconciler();
+        final Waiter waiter = cloudHelper.getWaiter();
 
         final Set<ConfigurationLoader.CloudConfiguration> cloudConfigurations =
                 ConfigurationLoader.load(properties);
 
-        for (ConfigurationLoader.CloudConfiguration config : cloudConfigurations) {
-            cloudHelper.createCloud(config);
-        }
+        //provision the clouds in parallel, continue with the ones which succeeded
+        final Map<ConfigurationLoader.CloudConfiguration, Throwable> failedClouds =
+                cloudHelper.createClouds(cloudConfigurations, PROVISIONING_PARALLELISM);
+        cloudConfigurations.removeAll(failedClouds.keySet());
+        checkState(!cloudConfigurations.isEmpty(), "Could not create any cloud.");
 
-        //create the lifecycle components
+        //describe the application
 
         String downloadCommand =
                 "sudo apt-get -y update && sudo apt-get -y install git && git clone https://github.com/dbaur/mediawiki-tutorial.git";
 
-        final LifecycleComponent loadBalancer;
+        final String loadBalancerScript;
         switch (lb) {
             case HAPROXY:
-                loadBalancer = client.controller(LifecycleComponent.class).updateOrCreate(
-                        new LifecycleComponentBuilder().name("LoadBalancer").preInstall(downloadCommand)
-                                .install("./mediawiki-tutorial/scripts/lance/haproxy.sh install")
-                                .start("./mediawiki-tutorial/scripts/lance/haproxy.sh startBlocking")
-                                .build());
+                loadBalancerScript = "./mediawiki-tutorial/scripts/lance/haproxy.sh";
                 break;
             case NGINX:
-                loadBalancer = client.controller(LifecycleComponent.class).updateOrCreate(
-                        new LifecycleComponentBuilder().name("LoadBalancer").preInstall(downloadCommand)
-                                .install("./mediawiki-tutorial/scripts/lance/nginx.sh install")
-                                .start("./mediawiki-tutorial/scripts/lance/nginx.sh startBlocking")
-                                .build());
+                loadBalancerScript = "./mediawiki-tutorial/scripts/lance/nginx.sh";
                 break;
             default:
-                throw new AssertionError();
+                throw new AssertionError("unknown lb");
         }
 
-        LifecycleComponent wiki = client.controller(LifecycleComponent.class).updateOrCreate(
-                new LifecycleComponentBuilder().name("MediaWiki").preInstall(downloadCommand)
+        //the placements are chosen up front, by the latencies of earlier runs and spread over
+        //the locations by the choices still pending
+        final Topology topology = new TopologyBuilder().application("MediawikiApplication")
+                .component(new TopologyComponentBuilder().name("LoadBalancer")
+                        .preInstall(downloadCommand).install(loadBalancerScript + " install")
+                        .start(loadBalancerScript + " startBlocking").providedPort("LBPROV", 80)
+                        .requiredPort("LOADBALANCERREQWIKI", false,
+                                loadBalancerScript + " configure")
+                        .placement(placementService.choose(cloudConfigurations))
+                        .virtualMachineName("lbVM")
+                        .createTopologyComponent())
+                .component(new TopologyComponentBuilder().name("MediaWiki")
+                        .preInstall(downloadCommand)
                         .install("./mediawiki-tutorial/scripts/lance/mediawiki.sh install")
                         .postInstall("./mediawiki-tutorial/scripts/lance/mediawiki.sh configure")
-                        .start("./mediawiki-tutorial/scripts/lance/mediawiki.sh startBlocking").build());
-
-        LifecycleComponent mariaDB = client.controller(LifecycleComponent.class).updateOrCreate(
-                new LifecycleComponentBuilder().name("MariaDB").preInstall(downloadCommand)
+                        .start("./mediawiki-tutorial/scripts/lance/mediawiki.sh startBlocking")
+                        .providedPort("WIKIPROV", 80).requiredPort("WIKIREQMARIADB", true)
+                        .placement(placementService.choose(cloudConfigurations))
+                        .virtualMachineName("wikiVM")
+                        .createTopologyComponent())
+                .component(new TopologyComponentBuilder().name("MariaDB")
+                        .preInstall(downloadCommand)
                         .install("./mediawiki-tutorial/scripts/lance/mariaDB.sh install")
                         .postInstall("./mediawiki-tutorial/scripts/lance/mariaDB.sh configure")
-                        .start("./mediawiki-tutorial/scripts/lance/mariaDB.sh startBlocking").build());
-
-        //create the application
-        Application application = client.controller(Application.class)
-                .updateOrCreate(new ApplicationBuilder().name("MediawikiApplication").build());
-
-        //create the virtual machine templates
-
-        VirtualMachineTemplate loadBalancerVirtualMachineTemplate =
-                cloudHelper.createTemplate(random(cloudConfigurations));
-
-        VirtualMachineTemplate wikiVirtualMachineTemplate =
-                cloudHelper.createTemplate(random(cloudConfigurations));
-
-        VirtualMachineTemplate mariaDBVirtualMachineTemplate =
-                cloudHelper.createTemplate(random(cloudConfigurations));
-
-        //create the application components
-
-        ApplicationComponent loadBalancerApplicationComponent =
-                client.controller(ApplicationComponent.class).updateOrCreate(
-                        new ApplicationComponentBuilder().application(application.getId())
-                                .component(loadBalancer.getId())
-                                .virtualMachineTemplate(loadBalancerVirtualMachineTemplate.getId()).build());
-
-        ApplicationComponent wikiApplicationComponent =
-                client.controller(ApplicationComponent.class).updateOrCreate(
-                        new ApplicationComponentBuilder().application(application.getId())
-                                .component(wiki.getId())
-                                .virtualMachineTemplate(wikiVirtualMachineTemplate.getId()).build());
-
-        ApplicationComponent mariaDBApplicationComponent =
-                client.controller(ApplicationComponent.class).updateOrCreate(
-                        new ApplicationComponentBuilder().application(application.getId())
-                                .component(mariaDB.getId())
-                                .virtualMachineTemplate(mariaDBVirtualMachineTemplate.getId()).build());
-
-        //create the ports
-
-        //database
-        final PortProvided mariadbprov = client.controller(PortProvided.class).updateOrCreate(
-                new PortProvidedBuilder().name("MARIADBPROV")
-                        .applicationComponent(mariaDBApplicationComponent.getId()).port(3306).build());
-        // wiki
-        final PortProvided wikiprov = client.controller(PortProvided.class).updateOrCreate(
-                new PortProvidedBuilder().name("WIKIPROV")
-                        .applicationComponent(wikiApplicationComponent.getId()).port(80).build());
-        final PortRequired wikireqmariadb = client.controller(PortRequired.class).updateOrCreate(
-                new PortRequiredBuilder().name("WIKIREQMARIADB")
-                        .applicationComponent(wikiApplicationComponent.getId()).isMandatory(true).build());
-        // lb
-        final PortProvided lbprov = client.controller(PortProvided.class).updateOrCreate(
-                new PortProvidedBuilder().name("LBPROV")
-                        .applicationComponent(loadBalancerApplicationComponent.getId()).port(80).build());
-
-
-        PortRequired loadbalancerreqwiki;
-        switch (lb) {
-            case NGINX:
-                loadbalancerreqwiki = client.controller(PortRequired.class).updateOrCreate(
-                        new PortRequiredBuilder().name("LOADBALANCERREQWIKI")
-                                .applicationComponent(loadBalancerApplicationComponent.getId())
-                                .isMandatory(false)
-                                .updateAction("./mediawiki-tutorial/scripts/lance/nginx.sh configure")
-                                .build());
-                break;
-            case HAPROXY:
-                loadbalancerreqwiki = client.controller(PortRequired.class).updateOrCreate(
-                        new PortRequiredBuilder().name("LOADBALANCERREQWIKI")
-                                .applicationComponent(loadBalancerApplicationComponent.getId())
-                                .isMandatory(false)
-                                .updateAction("./mediawiki-tutorial/scripts/lance/haproxy.sh configure")
-                                .build());
-                break;
-            default:
-                throw new AssertionError("unknown lb");
-        }
-
-
-        //create the communication
-
-        // wiki communicates with database
-        final Communication wikiWithDB = client.controller(Communication.class).updateOrCreate(
-                new CommunicationBuilder().providedPort(mariadbprov.getId())
-                        .requiredPort(wikireqmariadb.getId()).build());
-        //lb communicates with wiki
-        final Communication lbWithWiki = client.controller(Communication.class).updateOrCreate(
-                new CommunicationBuilder().providedPort(wikiprov.getId())
-                        .requiredPort(loadbalancerreqwiki.getId()).build());
-
-        final TemplateOptions templateOptions = client.controller(TemplateOptions.class).create(
-                new TemplateOptionsBuilder().addTag("started_by", "colosseum_example")
-                        .userData("myUserData").build());
-
+                        .start("./mediawiki-tutorial/scripts/lance/mariaDB.sh startBlocking")
+                        .providedPort("MARIADBPROV", 3306)
+                        .placement(placementService.choose(cloudConfigurations))
+                        .virtualMachineName("mariaDBVM")
+                        .createTopologyComponent())
+                // wiki communicates with database
+                .communication("WIKIREQMARIADB", "MARIADBPROV")
+                //lb communicates with wiki
+                .communication("LOADBALANCERREQWIKI", "WIKIPROV")
+                .tag(STARTED_BY_TAG, STARTED_BY).userData("myUserData").createTopology();
+
+        //create the application model and, if enabled, the virtual machines and instances
+        //every virtual machine is created right away, every instance right after its machine
+
+        final InstanceGroupWaiter instanceWaiter = new InstanceGroupWaiter(client, waiter);
+        final Deployment deployment =
+                new TopologyExecutor(client, cloudHelper, PROVISIONING_PARALLELISM,
+                        DeploymentGraph.Scheduling.PIPELINED)
+                        .deploy(topology, instances, instanceWaiter);
 
         if (!instances) {
+            reconciler.logPlan();
             System.exit(0);
         }
 
-        // create the virtual machines
-        Random random = new Random();
-
-        final VirtualMachine mariaDBVM = client.controller(VirtualMachine.class).create(
-                VirtualMachineBuilder.of(mariaDBVirtualMachineTemplate)
-                        .name("mariaDBVM" + random.nextInt(100)).templateOptions(templateOptions.getId())
-                        .build());
-
-        final VirtualMachine wikiVM = client.controller(VirtualMachine.class).create(
-                VirtualMachineBuilder.of(wikiVirtualMachineTemplate)
-                        .name("wikiVM" + random.nextInt(100)).build());
-
-        final VirtualMachine lbVM = client.controller(VirtualMachine.class).create(
-                VirtualMachineBuilder.of(loadBalancerVirtualMachineTemplate)
-                        .name("lbVM" + random.nextInt(100)).build());
-
-        // create the application instance
-        final ApplicationInstance appInstance = client.controller(ApplicationInstance.class)
-                .create(new ApplicationInstanceBuilder().application(application.getId()).build());
-
-        // create the instances
-
-        final Instance lbInstance = client.controller(Instance.class).create(
-                new InstanceBuilder().applicationComponent(loadBalancerApplicationComponent.getId())
-                        .applicationInstance(appInstance.getId()).virtualMachine(lbVM.getId()).build());
-
-        final Instance wikiInstance = client.controller(Instance.class).create(
-                new InstanceBuilder().applicationComponent(wikiApplicationComponent.getId())
-                        .applicationInstance(appInstance.getId()).virtualMachine(wikiVM.getId()).build());
-
-        final Instance dbInstance = client.controller(Instance.class).create(
-                new InstanceBuilder().applicationComponent(mariaDBApplicationComponent.getId())
-                        .applicationInstance(appInstance.getId()).virtualMachine(mariaDBVM.getId())
-                        .build());
+        instanceWaiter.awaitAll(INSTANCE_TIMEOUT_MIN, TimeUnit.MINUTES);
+        System.out.println(deployment.getReport());
 
-        waitForInstance(client, lbInstance);
-        waitForInstance(client, wikiInstance);
-        waitForInstance(client, dbInstance);
+        final LifecycleComponent wiki = deployment.getLifecycleComponent("MediaWiki");
+        final ApplicationComponent wikiApplicationComponent =
+                deployment.getApplicationComponent("MediaWiki");
 
         if (monitoringEnabled) {
 
             /**
-             * Windows and schedules
+             * Windows and schedules, shared with the offline ScalingSimulator
              */
-            final Schedule tenSeconds = client.controller(Schedule.class).updateOrCreate(
-                    new ScheduleBuilder().interval(10L).timeUnit(TimeUnit.SECONDS).build());
-            final TimeWindow minuteWindow = client.controller(TimeWindow.class).updateOrCreate(
-                    new TimeWindowBuilder().interval(1L).timeUnit(TimeUnit.MINUTES).build());
-            final TimeWindow tenSecondWindow = client.controller(TimeWindow.class).updateOrCreate(
-                    new TimeWindowBuilder().interval(10L).timeUnit(TimeUnit.SECONDS).build());
+            final ScalingRules scalingRules = ScalingRules.DEFAULT;
+            final Schedule tenSeconds = reconciler.reconcile(EntityCache.SCHEDULE_BY_INTERVAL,
+                    new ScheduleBuilder().interval(scalingRules.getScheduleSeconds())
+                            .timeUnit(TimeUnit.SECONDS).build());
+            final TimeWindow minuteWindow = reconciler.reconcile(EntityCache.TIME_WINDOW_BY_INTERVAL,
+                    new TimeWindowBuilder().interval(scalingRules.getAverageWindow())
+                            .timeUnit(scalingRules.getAverageWindowUnit()).build());
+            final TimeWindow tenSecondWindow = reconciler.reconcile(EntityCache.TIME_WINDOW_BY_INTERVAL,
+                    new TimeWindowBuilder().interval(scalingRules.getEvaluationWindowSeconds())
+                            .timeUnit(TimeUnit.SECONDS).build());
             final FormulaQuantifier relativeOneFormulaQuantifier =
-                    client.controller(FormulaQuantifier.class).updateOrCreate(
+                    reconciler.reconcile(FormulaQuantifier.class,
                             new FormulaQuantifierBuilder().relative(true).value(1.0).build());
 
             /**
              * Scaling rules
              */
             final ComponentHorizontalOutScalingAction scaleOutWiki =
-                    client.controller(ComponentHorizontalOutScalingAction.class).updateOrCreate(
-                            new ComponentHorizontalOutScalingActionBuilder().amount(1L)
-                                    .applicationComponent(wikiApplicationComponent.getId()).count(0L).max(2L)
-                                    .min(1L).build());
+                    reconciler.reconcile(EntityCache.SCALE_OUT_BY_COMPONENT,
+                            new ComponentHorizontalOutScalingActionBuilder()
+                                    .amount(scalingRules.getAmount())
+                                    .applicationComponent(wikiApplicationComponent.getId())
+                                    .count(0L).max(scalingRules.getMaxInstances())
+                                    .min(scalingRules.getMinInstances()).build());
             final ComponentHorizontalInScalingAction scaleInWiki =
-                    client.controller(ComponentHorizontalInScalingAction.class).updateOrCreate(
-                            new ComponentHorizontalInScalingActionBuilder().amount(1L)
-                                    .applicationComponent(wikiApplicationComponent.getId()).count(0L).max(2L)
-                                    .min(1L).build());
+                    reconciler.reconcile(EntityCache.SCALE_IN_BY_COMPONENT,
+                            new ComponentHorizontalInScalingActionBuilder()
+                                    .amount(scalingRules.getAmount())
+                                    .applicationComponent(wikiApplicationComponent.getId())
+                                    .count(0L).max(scalingRules.getMaxInstances())
+                                    .min(scalingRules.getMinInstances()).build());
 
 
             /**
              * Sensors
              */
-            final SensorDescription cpuUsageDescription = client.controller(SensorDescription.class)
-                    .updateOrCreate(new SensorDescriptionBuilder()
-                            .className("de.uniulm.omi.cloudiator.visor.sensors.SystemCpuUsageSensor")
-                            .isVmSensor(true).metricName("wikiCpuUsage").build());
+            final SensorDescription cpuUsageDescription =
+                    reconciler.reconcile(EntityCache.SENSOR_DESCRIPTION_BY_CLASS_AND_METRIC,
+                            new SensorDescriptionBuilder().className(
+                                    "de.uniulm.omi.cloudiator.visor.sensors.SystemCpuUsageSensor")
+                                    .isVmSensor(true).metricName(scalingRules.getMetric()).build());
             final SensorDescription apacheRequestDescription =
-                    client.controller(SensorDescription.class).updateOrCreate(
+                    reconciler.reconcile(EntityCache.SENSOR_DESCRIPTION_BY_CLASS_AND_METRIC,
                             new SensorDescriptionBuilder().className(
                                     "de.uniulm.omi.cloudiator.visor.sensors.apache.ApacheStatusSensor")
                                     .isVmSensor(true).metricName("apacheRequestsPerSecond").build());
 
             final SensorConfigurations cpuUsageConfiguration =
-                    client.controller(SensorConfigurations.class)
-                            .updateOrCreate(new SensorConfigurationsBuilder().build());
+                    reconciler.reconcile(SensorConfigurations.class,
+                            new SensorConfigurationsBuilder().build());
             final SensorConfigurations apacheRequestConfiguration =
-                    client.controller(SensorConfigurations.class).updateOrCreate(
+                    reconciler.reconcile(SensorConfigurations.class,
                             new SensorConfigurationsBuilder()
                                     .addConfig(KeyValue.of("apache.status.metric", "CURRENT_REQ_PER_SEC"))
                                     .build());
 
 
-            final RawMonitor wikiCPUUsage = client.controller(RawMonitor.class).updateOrCreate(
+            final RawMonitor wikiCPUUsage = reconciler.reconcile(EntityCache.RAW_MONITOR_BY_REFERENCES,
                     new RawMonitorBuilder().component(wiki.getId()).schedule(tenSeconds.getId())
                             .sensorConfigurations(cpuUsageConfiguration.getId())
                             .sensorDescription(cpuUsageDescription.getId()).build());
-            final RawMonitor apacheRequest = client.controller(RawMonitor.class).updateOrCreate(
+            final RawMonitor apacheRequest = reconciler.reconcile(EntityCache.RAW_MONITOR_BY_REFERENCES,
                     new RawMonitorBuilder().component(wiki.getId()).schedule(tenSeconds.getId())
                             .sensorConfigurations(apacheRequestConfiguration.getId())
                             .sensorDescription(apacheRequestDescription.getId()).build());
 
             final ComposedMonitor averageWikiCpuUsage1Minute =
-                    client.controller(ComposedMonitor.class).updateOrCreate(
+                    reconciler.reconcile(EntityCache.COMPOSED_MONITOR_BY_REFERENCES,
                             new ComposedMonitorBuilder().addMonitor(wikiCPUUsage.getId())
                                     .window(minuteWindow.getId()).flowOperator(FlowOperator.MAP)
                                     .function(FormulaOperator.AVG)
@@ -318,23 +254,28 @@ public class MediawikiExample {
                                     .schedule(tenSeconds.getId()).build());
 
             final ComposedMonitor averageApacheRequest1Minute =
-                    client.controller(ComposedMonitor.class).updateOrCreate(
+                    reconciler.reconcile(EntityCache.COMPOSED_MONITOR_BY_REFERENCES,
                             new ComposedMonitorBuilder().addMonitor(apacheRequest.getId())
                                     .window(minuteWindow.getId()).flowOperator(FlowOperator.MAP)
                                     .function(FormulaOperator.AVG)
                                     .quantifier(relativeOneFormulaQuantifier.getId())
                                     .schedule(tenSeconds.getId()).build());
 
-            final ConstantMonitor wikiThresholdMonitorScaleOut = client.controller(ConstantMonitor.class)
-                    .updateOrCreate(new ConstantMonitorBuilder().value(70d).build());
-            final ConstantMonitor wikiThresholdMonitorScaleDown = client.controller(ConstantMonitor.class)
-                    .updateOrCreate(new ConstantMonitorBuilder().value(10d).build());
-            final ConstantMonitor apacheThreshold = client.controller(ConstantMonitor.class)
-                    .updateOrCreate(new ConstantMonitorBuilder().value(70d).build());
+            final ConstantMonitor wikiThresholdMonitorScaleOut =
+                    reconciler.reconcile(ConstantMonitor.class,
+                            new ConstantMonitorBuilder()
+                                    .value(scalingRules.getScaleOutThreshold()).build());
+            final ConstantMonitor wikiThresholdMonitorScaleDown =
+                    reconciler.reconcile(ConstantMonitor.class,
+                            new ConstantMonitorBuilder()
+                                    .value(scalingRules.getScaleInThreshold()).build());
+            final ConstantMonitor apacheThreshold =
+                    reconciler.reconcile(ConstantMonitor.class,
+                            new ConstantMonitorBuilder().value(70d).build());
 
             // ScaleOut
             final ComposedMonitor averageWikiCpuUsageIsAboveThreshold =
-                    client.controller(ComposedMonitor.class).updateOrCreate(
+                    reconciler.reconcile(EntityCache.COMPOSED_MONITOR_BY_REFERENCES,
                             new ComposedMonitorBuilder().addMonitor(averageWikiCpuUsage1Minute.getId())
                                     .addMonitor(wikiThresholdMonitorScaleOut.getId()).schedule(tenSeconds.getId())
                                     .window(tenSecondWindow.getId()).flowOperator(FlowOperator.MAP)
@@ -342,7 +283,7 @@ public class MediawikiExample {
                                     .function(FormulaOperator.GTE).build());
 
             final ComposedMonitor countWikiCpuUsageIsAboveThreshold =
-                    client.controller(ComposedMonitor.class).updateOrCreate(new ComposedMonitorBuilder()
+                    reconciler.reconcile(EntityCache.COMPOSED_MONITOR_BY_REFERENCES, new ComposedMonitorBuilder()
                             .addMonitor(averageWikiCpuUsageIsAboveThreshold.getId())
                             .schedule(tenSeconds.getId()).window(tenSecondWindow.getId())
                             .flowOperator(FlowOperator.REDUCE).function(FormulaOperator.SUM)
@@ -350,7 +291,7 @@ public class MediawikiExample {
                             .addScalingAction(scaleOutWiki.getId()).build());
 
             final MonitorSubscription atLeastOneWikiCpuUsageisAboveThreshold =
-                    client.controller(MonitorSubscription.class).updateOrCreate(
+                    reconciler.reconcile(EntityCache.MONITOR_SUBSCRIPTION_BY_MONITOR,
                             new MonitorSubscriptionBuilder().type(SubscriptionType.SCALING)
                                     .monitor(countWikiCpuUsageIsAboveThreshold.getId())
                                     .filterType(FilterType.GTE).filterValue(1d)
@@ -358,7 +299,7 @@ public class MediawikiExample {
 
             // ScaleDown
             final ComposedMonitor averageWikiCpuUsageIsBelowThreshold =
-                    client.controller(ComposedMonitor.class).updateOrCreate(
+                    reconciler.reconcile(EntityCache.COMPOSED_MONITOR_BY_REFERENCES,
                             new ComposedMonitorBuilder().addMonitor(averageWikiCpuUsage1Minute.getId())
                                     .addMonitor(wikiThresholdMonitorScaleDown.getId()).schedule(tenSeconds.getId())
                                     .window(tenSecondWindow.getId()).flowOperator(FlowOperator.MAP)
@@ -366,7 +307,7 @@ public class MediawikiExample {
                                     .function(FormulaOperator.LTE).build());
 
             final ComposedMonitor countWikiCpuUsageIsBelowThreshold =
-                    client.controller(ComposedMonitor.class).updateOrCreate(new ComposedMonitorBuilder()
+                    reconciler.reconcile(EntityCache.COMPOSED_MONITOR_BY_REFERENCES, new ComposedMonitorBuilder()
                             .addMonitor(averageWikiCpuUsageIsBelowThreshold.getId())
                             .schedule(tenSeconds.getId()).window(tenSecondWindow.getId())
                             .flowOperator(FlowOperator.REDUCE).function(FormulaOperator.SUM)
@@ -374,45 +315,22 @@ public class MediawikiExample {
                             .addScalingAction(scaleInWiki.getId()).build());
 
             final MonitorSubscription atLeastOneWikiCpuUsageisBelowThreshold =
-                    client.controller(MonitorSubscription.class).updateOrCreate(
+                    reconciler.reconcile(EntityCache.MONITOR_SUBSCRIPTION_BY_MONITOR,
                             new MonitorSubscriptionBuilder().type(SubscriptionType.SCALING)
                                     .monitor(countWikiCpuUsageIsBelowThreshold.getId())
                                     .filterType(FilterType.GTE).filterValue(1d)
                                     .endpoint("http://localhost:9000/api").build());
         }
 
-        if (cleanup) {
-            client.controller(Instance.class).delete(lbInstance);
-            client.controller(Instance.class).delete(wikiInstance);
-            client.controller(Instance.class).delete(dbInstance);
-
-            client.controller(VirtualMachine.class).delete(lbVM);
-            client.controller(VirtualMachine.class).delete(wikiVM);
-            client.controller(VirtualMachine.class).delete(mariaDBVM);
-        }
-    }
-
-    private static ConfigurationLoader.CloudConfiguration random(
-            Set<ConfigurationLoader.CloudConfiguration> cloudConfigurations) {
-        checkState(!cloudConfigurations.isEmpty());
-        final ArrayList<ConfigurationLoader.CloudConfiguration> list =
-                new ArrayList<>(cloudConfigurations);
-        Collections.shuffle(list);
-        return list.get(0);
-    }
+        reconciler.logPlan();
+        System.out.println("Waits: " + waiter.getStatistics());
+        System.out.println("Placements:\n" + placementService.getReport());
 
-    private static void waitForInstance(Client client, Instance instance) {
-        while (!RemoteState.OK.equals(instance.getRemoteState())) {
-            if (RemoteState.ERROR.equals(instance.getRemoteState())) {
-                throw new RuntimeException("Starting of instance failed");
-            }
-            try {
-                Thread.sleep(5000);
-                instance = client.controller(Instance.class).get(instance.getId());
-                checkNotNull(instance);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
+        if (cleanup) {
+            //delete the instances and virtual machines of this run in parallel, instances first
+            new TeardownEngine(client, waiter, PROVISIONING_PARALLELISM,
+                    DeploymentGraph.Scheduling.PIPELINED)
+                    .tearDownApplicationInstance(deployment.getApplicationInstance().getId());
         }
     }
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples;
+
+import io.github.cloudiator.examples.internal.MetricTrace;
+import io.github.cloudiator.examples.internal.MetricTraceBuilder;
+import io.github.cloudiator.examples.internal.ScalingRules;
+import io.github.cloudiator.examples.internal.ScalingRulesBuilder;
+import io.github.cloudiator.examples.internal.ScalingSimulator;
+import io.github.cloudiator.examples.internal.SimulationResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Replays a metric trace through variants of the scaling rules of the {@link MediawikiExample}.
+ * <p>
+ * Takes the trace file, csv or binary, as first argument. Without arguments a synthetic trace
+ * of a week of daily load cycles is replayed instead.
+ */
+public class ScalingSimulationExample {
+
+    private final static double SLA_THRESHOLD = 90;
+
+    private final static double[] SCALE_OUT_THRESHOLDS = {50, 60, 70, 80, 90};
+    private final static double[] SCALE_IN_THRESHOLDS = {10, 20, 30};
+    private final static long[] MAX_INSTANCES = {2, 3, 4};
+
+    private final static int SYNTHETIC_SOURCES = 2;
+    private final static long SYNTHETIC_DAYS = 7;
+
+    public static void main(String[] args) throws IOException {
+
+        final MetricTrace trace =
+            args.length > 0 ? MetricTrace.read(new File(args[0])) : syntheticTrace();
+        System.out.println("Replaying " + trace);
+
+        final List<ScalingRules> variants = new ArrayList<>();
+        for (double scaleOutThreshold : SCALE_OUT_THRESHOLDS) {
+            for (double scaleInThreshold : SCALE_IN_THRESHOLDS) {
+                for (long maxInstances : MAX_INSTANCES) {
+                    variants.add(new ScalingRulesBuilder().scaleOutThreshold(scaleOutThreshold)
+                        .scaleInThreshold(scaleInThreshold).maxInstances(maxInstances)
+                        .createScalingRules());
+                }
+            }
+        }
+
+        final long start = System.currentTimeMillis();
+        final List<SimulationResult> results = new ScalingSimulator(trace, SLA_THRESHOLD)
+            .simulate(variants, ForkJoinPool.commonPool());
+        for (SimulationResult result : results) {
+            System.out.println(result);
+        }
+        System.out.println(
+            variants.size() + " variants in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * A cpu usage sample every ten seconds per source, following a daily sine with noise.
+     */
+    private static MetricTrace syntheticTrace() {
+        final Random random = new Random(0);
+        final MetricTraceBuilder builder = new MetricTraceBuilder();
+        final long day = 24 * 60 * 60 * 1000L;
+        for (long timestamp = 0; timestamp < SYNTHETIC_DAYS * day; timestamp += 10000) {
+            final double load = 45 - 35 * Math.cos(2 * Math.PI * timestamp / day);
+            for (int source = 0; source < SYNTHETIC_SOURCES; source++) {
+                builder.add(ScalingRules.DEFAULT.getMetric(), "wikiVM" + source, timestamp,
+                    Math.max(0, Math.min(100, load + random.nextGaussian() * 10)));
+            }
+        }
+        return builder.createMetricTrace();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples;
+
+import io.github.cloudiator.examples.internal.MicroBenchmark;
+import io.github.cloudiator.examples.internal.SeriesKey;
+import io.github.cloudiator.examples.internal.Tag;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares the ways a writer can derive the identity of the series of a data point.
+ * <p>
+ * Every operation handles one point of a round robin over a number of series: sorting and
+ * encoding its tags for every point as the writers did before the {@link SeriesKey}, looking
+ * the key up with {@link SeriesKey#of(String, List)} for every point, or reusing a key created
+ * once per series. Takes the number of series and the tags per series as optional arguments.
+ */
+public class SeriesKeyBenchmark {
+
+    private final static int DEFAULT_SERIES = 64;
+    private final static int DEFAULT_TAGS = 3;
+    private final static int ROUNDS = 10;
+    private final static int POINTS_PER_ROUND = 200000;
+
+    public static void main(String[] args) {
+        final int seriesCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SERIES;
+        final int tagCount = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_TAGS;
+
+        final String[] metricNames = new String[seriesCount];
+        final List<List<Tag>> tags = new ArrayList<>(seriesCount);
+        final SeriesKey[] keys = new SeriesKey[seriesCount];
+        for (int i = 0; i < seriesCount; i++) {
+            metricNames[i] = "metric" + i % 4;
+            List<Tag> seriesTags = new ArrayList<>(tagCount);
+            // unsorted, as callers usually pass them
+            for (int j = tagCount - 1; j >= 0; j--) {
+                seriesTags.add(new Tag("tag" + j, "value" + i));
+            }
+            tags.add(seriesTags);
+            keys[i] = SeriesKey.of(metricNames[i], seriesTags);
+        }
+
+        System.out.println(seriesCount + " series with " + tagCount + " tags");
+        final MicroBenchmark benchmark = new MicroBenchmark(ROUNDS, POINTS_PER_ROUND);
+        final int[] next = new int[1];
+        System.out.println(benchmark.measure("tags encoded per point", () -> {
+            final int i = next[0]++ % seriesCount;
+            return encode(metricNames[i], tags.get(i));
+        }));
+        System.out.println(benchmark.measure("SeriesKey.of per point", () -> {
+            final int i = next[0]++ % seriesCount;
+            return identity(SeriesKey.of(metricNames[i], tags.get(i)));
+        }));
+        System.out.println(benchmark.measure("SeriesKey reused", () -> {
+            final int i = next[0]++ % seriesCount;
+            return identity(keys[i]);
+        }));
+    }
+
+    /**
+     * Sorts the tags, encodes them and hashes the series, as the writers did for every point.
+     */
+    private static int encode(String metricName, List<Tag> tags) {
+        TreeMap<String, String> sorted = new TreeMap<>();
+        for (Tag tag : tags) {
+            sorted.put(tag.getName(), tag.getValue());
+        }
+        StringBuilder fragment = new StringBuilder();
+        for (Map.Entry<String, String> entry : sorted.entrySet()) {
+            fragment.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        final byte[] metricNameBytes = metricName.getBytes(StandardCharsets.UTF_8);
+        final byte[] tagFragment = fragment.toString().getBytes(StandardCharsets.UTF_8);
+        return 31 * metricName.hashCode() + sorted.hashCode() + metricNameBytes.length
+            + tagFragment.length;
+    }
+
+    private static int identity(SeriesKey key) {
+        return key.hashCode() + key.getTags().size();
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples;
+
+import de.uniulm.omi.cloudiator.colosseum.client.Client;
+import io.github.cloudiator.examples.internal.ConfigurationLoader;
+import io.github.cloudiator.examples.internal.DeploymentGraph;
+import io.github.cloudiator.examples.internal.TeardownEngine;
+import io.github.cloudiator.examples.internal.WaiterBuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Deletes all virtual machines, instances and template options started by the
+ * {@link MediawikiExample}, found by the tag of their template options.
+ */
+public class TeardownExample {
+
+    private static final int TEARDOWN_PARALLELISM = 32;
+
+    public static void main(String[] args) throws IOException {
+
+        final String configFileProperty = System.getProperty("config.file");
+        checkArgument(configFileProperty != null,
+            "Missing parameter config.file, use -Dconfig.file parameter");
+        final File file = new File(configFileProperty);
+        checkArgument(file.exists() && file.isFile(), String
+            .format("Could not find file %s, check the -Dconfig.file option",
+                file.getAbsolutePath()));
+
+        final Properties properties = new Properties();
+        try (FileInputStream fileInputStream = new FileInputStream(file)) {
+            properties.load(fileInputStream);
+        }
+
+        final Client client = ConfigurationLoader.createClient(properties);
+
+        new TeardownEngine(client, new WaiterBuilder().createWaiter(), TEARDOWN_PARALLELISM,
+            DeploymentGraph.Scheduling.PIPELINED)
+            .tearDownTagged(MediawikiExample.STARTED_BY_TAG, MediawikiExample.STARTED_BY);
+    }
+}
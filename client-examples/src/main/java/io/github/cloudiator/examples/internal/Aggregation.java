@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import org.kairosdb.client.builder.Aggregator;
+import org.kairosdb.client.builder.AggregatorFactory;
+import org.kairosdb.client.builder.TimeUnit;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An aggregation executed by KairosDB, so that only the aggregated values are transferred.
+ */
+public class Aggregation {
+
+    public enum Function {
+        AVG, MAX, MIN, SUM, COUNT, PERCENTILE
+    }
+
+
+    private final Function function;
+    private final double percentile;
+
+    private Aggregation(Function function, double percentile) {
+        checkNotNull(function);
+        this.function = function;
+        this.percentile = percentile;
+    }
+
+    public static Aggregation avg() {
+        return new Aggregation(Function.AVG, 0);
+    }
+
+    public static Aggregation max() {
+        return new Aggregation(Function.MAX, 0);
+    }
+
+    public static Aggregation min() {
+        return new Aggregation(Function.MIN, 0);
+    }
+
+    public static Aggregation sum() {
+        return new Aggregation(Function.SUM, 0);
+    }
+
+    public static Aggregation count() {
+        return new Aggregation(Function.COUNT, 0);
+    }
+
+    /**
+     * @param percentile the percentile between 0 and 1, e.g. 0.95
+     */
+    public static Aggregation percentile(double percentile) {
+        checkArgument(percentile > 0 && percentile <= 1, "percentile must be within (0,1]");
+        return new Aggregation(Function.PERCENTILE, percentile);
+    }
+
+    public Function getFunction() {
+        return function;
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    Aggregator toAggregator(int samplingValue, TimeUnit samplingUnit) {
+        switch (function) {
+            case AVG:
+                return AggregatorFactory.createAverageAggregator(samplingValue, samplingUnit);
+            case MAX:
+                return AggregatorFactory.createMaxAggregator(samplingValue, samplingUnit);
+            case MIN:
+                return AggregatorFactory.createMinAggregator(samplingValue, samplingUnit);
+            case SUM:
+                return AggregatorFactory.createSumAggregator(samplingValue, samplingUnit);
+            case COUNT:
+                return AggregatorFactory.createCountAggregator(samplingValue, samplingUnit);
+            case PERCENTILE:
+                return AggregatorFactory
+                    .createPercentileAggregator(percentile, samplingValue, samplingUnit);
+            default:
+                throw new AssertionError("unknown function " + function);
+        }
+    }
+
+    /**
+     * @return whether the values of several buckets can be combined exactly, i.e. for maxima,
+     * minima, sums and counts.
+     */
+    boolean isCombinable() {
+        return function != Function.AVG && function != Function.PERCENTILE;
+    }
+
+    /**
+     * Combines the values of several buckets of a combinable aggregation into one.
+     */
+    double combine(List<Double> buckets) {
+        checkArgument(isCombinable(), this + " can not be combined");
+        return function == Function.COUNT ? sum(buckets) : apply(buckets);
+    }
+
+    /**
+     * Applies the aggregation to raw values on the client, percentiles by nearest rank.
+     */
+    double apply(List<Double> values) {
+        checkArgument(!values.isEmpty(), "no values");
+        switch (function) {
+            case AVG:
+                return sum(values) / values.size();
+            case MAX:
+                double max = Double.NEGATIVE_INFINITY;
+                for (double value : values) {
+                    max = Math.max(max, value);
+                }
+                return max;
+            case MIN:
+                double min = Double.POSITIVE_INFINITY;
+                for (double value : values) {
+                    min = Math.min(min, value);
+                }
+                return min;
+            case SUM:
+                return sum(values);
+            case COUNT:
+                return values.size();
+            case PERCENTILE:
+                final double[] sorted = new double[values.size()];
+                for (int i = 0; i < sorted.length; i++) {
+                    sorted[i] = values.get(i);
+                }
+                Arrays.sort(sorted);
+                final int rank = (int) Math.ceil(percentile * sorted.length);
+                return sorted[Math.max(0, rank - 1)];
+            default:
+                throw new AssertionError("unknown function " + function);
+        }
+    }
+
+    private static double sum(List<Double> values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+
+        Aggregation that = (Aggregation) o;
+
+        return function == that.function && Double.compare(that.percentile, percentile) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * function.hashCode() + Double.hashCode(percentile);
+    }
+
+    @Override
+    public String toString() {
+        return function == Function.PERCENTILE ? "percentile(" + percentile + ")" :
+            function.name().toLowerCase();
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Non blocking metric writer queueing data points in a bounded buffer.
+ * <p>
+ * A background thread sends the buffered points as one request to the {@link
+ * KairosDbConnection} whenever {@code batchSize} points are available or the oldest point
+ * waited for {@code lingerMillis}. Points of the same metric and tag set end up in the same
+ * series of the request. Closing the writer flushes all remaining points, including those of
+ * writes which were in flight while it closed.
+ */
+public class BatchingMetricWriter implements MetricWriter {
+
+    public enum BackpressurePolicy {
+        /**
+         * block the writing thread until the buffer has space again
+         */
+        BLOCK,
+        /**
+         * discard the oldest buffered point
+         */
+        DROP_OLDEST,
+        /**
+         * reject the new point with an {@link IllegalStateException}
+         */
+        FAIL
+    }
+
+
+    private static final Logger LOGGER = LogManager.getLogger(BatchingMetricWriter.class);
+
+    private final KairosDbConnection connection;
+    private final BlockingQueue<MetricPoint> buffer;
+    private final int batchSize;
+    private final long lingerMillis;
+    private final BackpressurePolicy policy;
+    private final Thread flusher;
+    private volatile boolean closed = false;
+    // set once no write is in flight anymore, stops the flusher
+    private volatile boolean stopped = false;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong spooled = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+
+    public BatchingMetricWriter(KairosDbConnection connection) {
+        this(connection, 10000, 500, 1000, BackpressurePolicy.DROP_OLDEST);
+    }
+
+    public BatchingMetricWriter(KairosDbConnection connection, int capacity, int batchSize,
+        long lingerMillis, BackpressurePolicy policy) {
+        checkNotNull(connection);
+        checkNotNull(policy);
+        checkArgument(capacity > 0, "capacity must be positive");
+        checkArgument(batchSize > 0, "batchSize must be positive");
+        checkArgument(lingerMillis > 0, "lingerMillis must be positive");
+        this.connection = connection;
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        this.policy = policy;
+        this.flusher = new Thread(this::run, "kairosdb-batch-writer");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    @Override
+    public void write(String metricName, List<Tag> tags, double value) {
+        write(metricName, tags, value, System.currentTimeMillis());
+    }
+
+    @Override
+    public void write(String metricName, List<Tag> tags, double value, long timeStamp) {
+        write(SeriesKey.of(metricName, tags), value, timeStamp);
+    }
+
+    @Override
+    public void write(SeriesKey series, double value, long timeStamp) {
+        // close() waits for the writes in flight, so a point passing the check is flushed
+        inFlight.incrementAndGet();
+        try {
+            checkState(!closed, "writer is closed");
+            enqueue(new MetricPoint(series, value, timeStamp - KairosDbConnection.PULL_DELAY));
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private void enqueue(MetricPoint point) {
+        switch (policy) {
+            case BLOCK:
+                try {
+                    buffer.put(point);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for buffer space",
+                        e);
+                }
+                break;
+            case DROP_OLDEST:
+                while (!buffer.offer(point)) {
+                    if (buffer.poll() != null) {
+                        dropped.incrementAndGet();
+                    }
+                }
+                break;
+            case FAIL:
+                if (!buffer.offer(point)) {
+                    dropped.incrementAndGet();
+                    throw new IllegalStateException("Metric buffer is full");
+                }
+                break;
+            default:
+                throw new AssertionError("unknown policy " + policy);
+        }
+    }
+
+    private void run() {
+        List<MetricPoint> batch = new ArrayList<>(batchSize);
+        while (!stopped) {
+            try {
+                MetricPoint first = buffer.poll(lingerMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                final long deadline =
+                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+                while (batch.size() < batchSize) {
+                    if (buffer.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    MetricPoint next = buffer.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                send(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                LOGGER.error("Unexpected error while flushing metrics.", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void send(List<MetricPoint> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        requests.incrementAndGet();
+        final KairosDbConnection.PushResult result = connection.pushCounted(batch);
+        sent.addAndGet(result.getSent());
+        spooled.addAndGet(result.getSpooled());
+        dropped.addAndGet(result.getLost());
+    }
+
+    @Override
+    public void flush() {
+        List<MetricPoint> batch = new ArrayList<>(batchSize);
+        while (buffer.drainTo(batch, batchSize) > 0) {
+            send(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * @return the number of points discarded because the buffer was full or they could neither
+     * be pushed nor spooled.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of points successfully pushed.
+     */
+    public long getSent() {
+        return sent.get();
+    }
+
+    /**
+     * @return the number of points which could not be pushed and were spooled to disk instead.
+     */
+    public long getSpooled() {
+        return spooled.get();
+    }
+
+    /**
+     * @return the number of push requests issued.
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Stops accepting points and flushes the buffer. The underlying connection stays open.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // keep draining until no write is in flight, so that blocked writers get space and finish
+        while (inFlight.get() > 0) {
+            if (!flusher.isAlive()) {
+                flush();
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        stopped = true;
+        try {
+            flusher.join(lingerMillis * 2 + 30000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+}
@@ -18,18 +18,35 @@
 
 package io.github.cloudiator.examples.internal;
 
-import com.google.common.base.Predicate;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import de.uniulm.omi.cloudiator.colosseum.client.Client;
 import de.uniulm.omi.cloudiator.colosseum.client.entities.*;
 import de.uniulm.omi.cloudiator.common.os.OperatingSystemFamily;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
  * Created by daniel on 27.06.16.
@@ -37,87 +54,202 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public class CloudHelper {
 
     private final static long WAIT_TIMEOUT_MIN = 3;
+    private static final Logger LOGGER = LogManager.getLogger(CloudHelper.class);
 
     private Set<CloudConfigurationVisitor> visitors;
     private final Client client;
+    private final Waiter waiter;
+    private final EntityCache entityCache;
+    private final TemplateResolver templateResolver;
+    private final Reconciler reconciler;
+    private final PlacementService placementService;
+    private final Map<String, ImageResolutionContext> contexts = new ConcurrentHashMap<>();
 
     public CloudHelper(Client client) {
+        this(client, false);
+    }
+
+    /**
+     * @param reconcile whether unchanged entities are skipped instead of updated, see
+     *                  {@link Reconciler}.
+     */
+    public CloudHelper(Client client, boolean reconcile) {
+        this(client, reconcile, null);
+    }
+
+    /**
+     * @param idCache the ids remembered from previous runs, see {@link EntityCache}.
+     */
+    public CloudHelper(Client client, boolean reconcile, @Nullable EntityIdCache idCache) {
+        this(client, reconcile, idCache, new PlacementService());
+    }
+
+    /**
+     * @param placementService chooses the locations of templates without a fixed location.
+     */
+    public CloudHelper(Client client, boolean reconcile, @Nullable EntityIdCache idCache,
+            PlacementService placementService) {
+        checkNotNull(placementService);
         this.client = client;
+        this.placementService = placementService;
+        this.waiter = new WaiterBuilder().createWaiter();
+        this.entityCache = new EntityCache(client, idCache, waiter);
+        this.reconciler = new Reconciler(client, entityCache, reconcile);
+        this.templateResolver =
+                new TemplateResolver(client, entityCache, WAIT_TIMEOUT_MIN, TimeUnit.MINUTES);
         visitors = Sets.newLinkedHashSet();
-        visitors.add(new CreateApi(client));
-        visitors.add(new CreateCloud(client));
-        visitors.add(new CreateCloudProperties(client));
-        visitors.add(new CreateCloudCredential(client));
-        visitors.add(new UpdateImageLogin(client));
-        visitors.add(new UpdateImageOs(client));
+        visitors.add(new CreateApi());
+        visitors.add(new CreateCloud());
+        visitors.add(new CreateCloudProperties());
+        visitors.add(new CreateCloudCredential());
+        visitors.add(new UpdateImageLogin());
+        visitors.add(new UpdateImageOs());
+        visitors.add(new CommitImage());
         //add properties
 
     }
 
+    /**
+     * @return the entity cache shared by all operations of this helper.
+     */
+    public EntityCache getEntityCache() {
+        return entityCache;
+    }
+
+    /**
+     * @return the waiter of all remote waits of this helper, holding their statistics.
+     */
+    public Waiter getWaiter() {
+        return waiter;
+    }
+
+    /**
+     * @return the reconciler shared by all operations of this helper.
+     */
+    public Reconciler getReconciler() {
+        return reconciler;
+    }
+
+    /**
+     * @return the placement service choosing and rating the locations of this helper.
+     */
+    public PlacementService getPlacementService() {
+        return placementService;
+    }
+
     public void createCloud(final ConfigurationLoader.CloudConfiguration cloudConfiguration) {
-        for (CloudConfigurationVisitor visitor : visitors) {
-            visitor.visit(cloudConfiguration);
+        try {
+            for (CloudConfigurationVisitor visitor : visitors) {
+                visitor.visit(cloudConfiguration);
+            }
+        } finally {
+            contexts.remove(cloudConfiguration.getName());
         }
     }
 
-    public VirtualMachineTemplate createTemplate(
-            final ConfigurationLoader.CloudConfiguration cloudConfiguration) {
+    /**
+     * Provisions the clouds concurrently. Within a cloud, every visitor runs as soon as the
+     * visitors it depends on are finished. A failing cloud does not abort the others.
+     *
+     * @param parallelism the maximum number of visitors running at the same time.
+     * @return the failures by cloud, empty if all clouds were provisioned.
+     */
+    public Map<ConfigurationLoader.CloudConfiguration, Throwable> createClouds(
+            Collection<ConfigurationLoader.CloudConfiguration> cloudConfigurations,
+            int parallelism) {
+        checkArgument(parallelism > 0, "parallelism must be positive");
+        final ExecutorService executor = Executors.newFixedThreadPool(parallelism,
+                new ThreadFactoryBuilder().setNameFormat("cloud-helper-%d").setDaemon(true)
+                        .build());
+        try {
+            final Map<ConfigurationLoader.CloudConfiguration, CompletableFuture<Void>> runs =
+                    new LinkedHashMap<>();
+            for (ConfigurationLoader.CloudConfiguration cloudConfiguration : cloudConfigurations) {
+                runs.put(cloudConfiguration, provision(cloudConfiguration, executor));
+            }
 
-        final Cloud cloud = client.controller(Cloud.class).getSingle(new Predicate<Cloud>() {
-            @Override
-            public boolean apply(@Nullable Cloud input) {
-                checkNotNull(input);
-                return input.getName().equals(cloudConfiguration.getName());
+            final Map<ConfigurationLoader.CloudConfiguration, Throwable> failures =
+                    new LinkedHashMap<>();
+            for (Map.Entry<ConfigurationLoader.CloudConfiguration, CompletableFuture<Void>> run :
+                    runs.entrySet()) {
+                try {
+                    run.getValue().join();
+                } catch (CompletionException | CancellationException e) {
+                    final Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    LOGGER.error("Could not create cloud " + run.getKey().getName(), cause);
+                    failures.put(run.getKey(), cause);
+                }
             }
-        }).get();
-        Location location =
-                client.controller(Location.class).waitAndGetSingle(new Predicate<Location>() {
-                    @Override
-                    public boolean apply(@Nullable Location input) {
-                        checkNotNull(input);
-                        return cloudConfiguration.getLocationId().equals(input.getProviderId()) && input
-                                .getCloud().equals(cloud.getId());
-                    }
-                }, WAIT_TIMEOUT_MIN, TimeUnit.MINUTES).get();
-        Image image = client.controller(Image.class).waitAndGetSingle(new Predicate<Image>() {
-            @Override
-            public boolean apply(@Nullable Image input) {
-                checkNotNull(input);
-                return cloudConfiguration.getImageId().equals(input.getProviderId()) && input
-                        .getCloud().equals(cloud.getId());
+            return failures;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private CompletableFuture<Void> provision(
+            final ConfigurationLoader.CloudConfiguration cloudConfiguration, Executor executor) {
+        final Map<Class<?>, CompletableFuture<Void>> scheduled = new HashMap<>();
+        for (final CloudConfigurationVisitor visitor : visitors) {
+            final List<CompletableFuture<Void>> dependencies = new ArrayList<>();
+            for (Class<? extends CloudConfigurationVisitor> dependency : visitor.dependencies()) {
+                checkState(scheduled.containsKey(dependency), "Visitor " + dependency
+                        + " has to be registered before " + visitor.getClass());
+                dependencies.add(scheduled.get(dependency));
             }
-        }, WAIT_TIMEOUT_MIN, TimeUnit.MINUTES).get();
-        Hardware hardware =
-                client.controller(Hardware.class).waitAndGetSingle(new Predicate<Hardware>() {
-                    @Override
-                    public boolean apply(@Nullable Hardware input) {
-                        checkNotNull(input);
-                        return cloudConfiguration.getHardwareId().equals(input.getProviderId()) && input
-                                .getCloud().equals(cloud.getId());
-                    }
-                }, WAIT_TIMEOUT_MIN, TimeUnit.MINUTES).get();
-
-
-        return client.controller(VirtualMachineTemplate.class).updateOrCreate(
-                new VirtualMachineTemplateBuilder().cloud(cloud.getId()).location(location.getId())
-                        .image(image.getId()).hardware(hardware.getId()).build());
+            scheduled.put(visitor.getClass(), CompletableFuture
+                    .allOf(dependencies.toArray(new CompletableFuture[dependencies.size()]))
+                    .thenRunAsync(() -> visitor.visit(cloudConfiguration), executor));
+        }
+        return CompletableFuture
+                .allOf(scheduled.values().toArray(new CompletableFuture[scheduled.size()]))
+                .whenComplete(
+                        (ignored, throwable) -> contexts.remove(cloudConfiguration.getName()));
     }
 
-    interface CloudConfigurationVisitor {
-        void visit(ConfigurationLoader.CloudConfiguration cloudConfiguration);
+    /**
+     * @return the context shared by all visitors of the cloud.
+     */
+    private ImageResolutionContext context(
+            final ConfigurationLoader.CloudConfiguration cloudConfiguration) {
+        return contexts.computeIfAbsent(cloudConfiguration.getName(),
+                name -> new ImageResolutionContext(cloudConfiguration, client, entityCache,
+                        WAIT_TIMEOUT_MIN, TimeUnit.MINUTES));
+    }
+
+    public VirtualMachineTemplate createTemplate(final Placement placement) {
+        return templateResolver.resolve(placement);
     }
 
+    /**
+     * Creates the templates of all placements, waiting for their locations, images and
+     * hardware concurrently.
+     *
+     * @return the template by placement, placements occurring twice share a template.
+     */
+    public Map<Placement, VirtualMachineTemplate> createTemplates(
+            Collection<Placement> placements, int parallelism) {
+        return templateResolver.resolveAll(placements, parallelism);
+    }
 
-    class CreateApi implements CloudConfigurationVisitor {
-        private final Client client;
+    interface CloudConfigurationVisitor {
+        void visit(ConfigurationLoader.CloudConfiguration cloudConfiguration);
 
-        CreateApi(Client client) {
-            this.client = client;
+        /**
+         * @return the visitors which have to be finished before this visitor runs.
+         */
+        default Set<Class<? extends CloudConfigurationVisitor>> dependencies() {
+            return Collections.emptySet();
         }
+    }
+
 
+    class CreateApi implements CloudConfigurationVisitor {
+        /**
+         * Synchronized as clouds provisioned in parallel may share their api.
+         */
         @Override
-        public void visit(ConfigurationLoader.CloudConfiguration cloudConfiguration) {
-            client.controller(Api.class).updateOrCreate(
+        public synchronized void visit(ConfigurationLoader.CloudConfiguration cloudConfiguration) {
+            reconciler.reconcile(EntityCache.API_BY_NAME,
                     new ApiBuilder().name(cloudConfiguration.getApiName())
                             .internalProviderName(cloudConfiguration.getApiInternalProvider()).build());
         }
@@ -126,162 +258,120 @@ public class CloudHelper {
 
     class CreateCloud implements CloudConfigurationVisitor {
 
-        private final Client client;
-
-        CreateCloud(Client client) {
-            this.client = client;
-        }
-
         @Override
         public void visit(final ConfigurationLoader.CloudConfiguration cloudConfiguration) {
-            Api api = client.controller(Api.class).getSingle(new Predicate<Api>() {
-                @Override
-                public boolean apply(@Nullable Api input) {
-                    checkNotNull(input);
-                    return input.getName().equals(cloudConfiguration.getApiName());
-                }
-            }).get();
-            client.controller(Cloud.class).updateOrCreate(
+            Api api =
+                    entityCache.get(EntityCache.API_BY_NAME, cloudConfiguration.getApiName()).get();
+            reconciler.reconcile(EntityCache.CLOUD_BY_NAME,
                     new CloudBuilder().api(api.getId()).endpoint(cloudConfiguration.getEndpoint())
                             .name(cloudConfiguration.getName()).build());
         }
+
+        @Override
+        public Set<Class<? extends CloudConfigurationVisitor>> dependencies() {
+            return Collections.singleton(CreateApi.class);
+        }
     }
 
 
     private class CreateCloudProperties implements CloudConfigurationVisitor {
 
-        private final Client client;
-
-        CreateCloudProperties(Client client) {
-            this.client = client;
-        }
-
         @Override
         public void visit(final ConfigurationLoader.CloudConfiguration cloudConfiguration) {
-            final Cloud cloud = client.controller(Cloud.class).getSingle(new Predicate<Cloud>() {
-                @Override
-                public boolean apply(@Nullable Cloud input) {
-                    checkNotNull(input);
-                    return input.getName().equals(cloudConfiguration.getName());
-                }
-            }).get();
+            final Cloud cloud =
+                    entityCache.get(EntityCache.CLOUD_BY_NAME, cloudConfiguration.getName()).get();
 
             for (Map.Entry<String, String> entry : cloudConfiguration.getProperties().entrySet()) {
-                client.controller(CloudProperty.class).updateOrCreate(
+                reconciler.reconcile(EntityCache.CLOUD_PROPERTY_BY_CLOUD_AND_KEY,
                         new CloudPropertyBuilder().cloud(cloud.getId()).key(entry.getKey())
                                 .value(entry.getValue()).build());
             }
         }
+
+        @Override
+        public Set<Class<? extends CloudConfigurationVisitor>> dependencies() {
+            return Collections.singleton(CreateCloud.class);
+        }
     }
 
 
     private class CreateCloudCredential implements CloudConfigurationVisitor {
 
-        private final Client client;
-
-        public CreateCloudCredential(Client client) {
-            this.client = client;
-        }
-
         @Override
         public void visit(final ConfigurationLoader.CloudConfiguration cloudConfiguration) {
-            // todo workaround for cloud credential requiring a tenant...
-            Tenant tenant = client.controller(Tenant.class).getSingle(new Predicate<Tenant>() {
-                @Override
-                public boolean apply(@Nullable Tenant input) {
-                    checkNotNull(input);
-                    return input.getName().equals("admin");
-                }
-            }).get();
-
-            Cloud cloud = client.controller(Cloud.class).getSingle(new Predicate<Cloud>() {
-                @Override
-                public boolean apply(@Nullable Cloud input) {
-                    checkNotNull(input);
-                    return input.getName().equals(cloudConfiguration.getName());
-                }
-            }).get();
+            final ImageResolutionContext context = context(cloudConfiguration);
+            final Tenant tenant = context.tenant();
+            final Cloud cloud = context.cloud();
             client.controller(CloudCredential.class).updateOrCreate(
                     new CloudCredentialBuilder().cloud(cloud.getId())
                             .secret(cloudConfiguration.getCredentialPassword())
                             .user(cloudConfiguration.getCredentialUsername()).tenant(tenant.getId())
                             .build());
         }
+
+        @Override
+        public Set<Class<? extends CloudConfigurationVisitor>> dependencies() {
+            return Collections.singleton(CreateCloud.class);
+        }
     }
 
 
     private class UpdateImageLogin implements CloudConfigurationVisitor {
 
-        private final Client client;
-
-        public UpdateImageLogin(Client client) {
-            this.client = client;
-        }
-
         @Override
         public void visit(final ConfigurationLoader.CloudConfiguration cloudConfiguration) {
-            final Cloud cloud = client.controller(Cloud.class).getSingle(new Predicate<Cloud>() {
-                @Override
-                public boolean apply(@Nullable Cloud input) {
-                    checkNotNull(input);
-                    return input.getName().equals(cloudConfiguration.getName());
-                }
-            }).get();
-
-            Image image = client.controller(Image.class).waitAndGetSingle(new Predicate<Image>() {
-                @Override
-                public boolean apply(@Nullable Image input) {
-                    checkNotNull(input);
-                    return input.getCloud().equals(cloud.getId()) && cloudConfiguration.getImageId()
-                            .equals(input.getProviderId());
-                }
-            }, 3, TimeUnit.MINUTES).get();
+            final ImageResolutionContext context = context(cloudConfiguration);
+            // resolve the image even without login name, failing if it is never discovered
+            context.image();
 
             if (cloudConfiguration.getImageLoginName() != null) {
-                image.setDefaultLoginUsername(cloudConfiguration.getImageLoginName());
+                context.updateImage(image -> image
+                        .setDefaultLoginUsername(cloudConfiguration.getImageLoginName()));
             }
+        }
 
-            client.controller(Image.class).update(image);
+        @Override
+        public Set<Class<? extends CloudConfigurationVisitor>> dependencies() {
+            return Collections.singleton(CreateCloud.class);
         }
     }
 
     private class UpdateImageOs implements CloudConfigurationVisitor {
 
-        private final Client client;
-
-        public UpdateImageOs(Client client) {
-            this.client = client;
-        }
-
         @Override
         public void visit(final ConfigurationLoader.CloudConfiguration cloudConfiguration) {
-            final Cloud cloud = client.controller(Cloud.class).getSingle(new Predicate<Cloud>() {
-                @Override
-                public boolean apply(@Nullable Cloud input) {
-                    checkNotNull(input);
-                    return input.getName().equals(cloudConfiguration.getName());
-                }
-            }).get();
-
-            Image image = client.controller(Image.class).waitAndGetSingle(new Predicate<Image>() {
-                @Override
-                public boolean apply(@Nullable Image input) {
-                    checkNotNull(input);
-                    return input.getCloud().equals(cloud.getId()) && cloudConfiguration.getImageId()
-                            .equals(input.getProviderId());
-                }
-            }, 3, TimeUnit.MINUTES).get();
-
-            OperatingSystem os = client.controller(OperatingSystem.class).get(image.getOperatingSystem());
+            final ImageResolutionContext context = context(cloudConfiguration);
+            OperatingSystem os = context.operatingSystem();
 
             if (os.getOperatingSystemFamily() == null || os.getOperatingSystemFamily().equals(OperatingSystemFamily.UNKNOWN)) {
                 if (cloudConfiguration.operatingSystemVendor() == null) {
                     throw new IllegalStateException("Could not resolve vendor of image. Not auto discovered and not configured!.");
                 }
-                os.setOperatingSystemFamily(OperatingSystemFamily.valueOf(cloudConfiguration.operatingSystemVendor()));
+                context.updateOperatingSystem(operatingSystem -> operatingSystem
+                        .setOperatingSystemFamily(OperatingSystemFamily
+                                .valueOf(cloudConfiguration.operatingSystemVendor())));
             }
+        }
 
-            client.controller(OperatingSystem.class).update(os);
+        @Override
+        public Set<Class<? extends CloudConfigurationVisitor>> dependencies() {
+            return Collections.singleton(CreateCloud.class);
+        }
+    }
+
+    /**
+     * Writes the image changes collected by the other visitors.
+     */
+    private class CommitImage implements CloudConfigurationVisitor {
+
+        @Override
+        public void visit(final ConfigurationLoader.CloudConfiguration cloudConfiguration) {
+            context(cloudConfiguration).commit();
+        }
+
+        @Override
+        public Set<Class<? extends CloudConfigurationVisitor>> dependencies() {
+            return Sets.newHashSet(UpdateImageLogin.class, UpdateImageOs.class);
         }
     }
 
@@ -7,6 +7,8 @@ import de.uniulm.omi.cloudiator.colosseum.client.Client;
 import de.uniulm.omi.cloudiator.colosseum.client.ClientBuilder;
 
 import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -25,6 +27,44 @@ public class ConfigurationLoader {
                 .url(configuration.getString("colosseum.url").get()).build();
     }
 
+    /**
+     * @return whether entities are reconciled with the remote ones instead of written blindly,
+     * configured by the optional colosseum.reconcile property, enabled by default.
+     */
+    public static boolean isReconcileEnabled(Properties properties) {
+        Configuration configuration = new ConfigurationImpl(properties);
+        return Boolean.parseBoolean(configuration.getString("colosseum.reconcile").or("true"));
+    }
+
+    /**
+     * @return the entity id cache configured by the optional colosseum.cache.file property.
+     */
+    public static Optional<EntityIdCache> createEntityIdCache(Properties properties)
+            throws IOException {
+        Configuration configuration = new ConfigurationImpl(properties);
+        final Optional<String> file = configuration.getString("colosseum.cache.file");
+        if (!file.isPresent()) {
+            return Optional.absent();
+        }
+        return Optional.of(EntityIdCache.load(new File(file.get()),
+                configuration.getString("colosseum.url").get() + "|" + configuration
+                        .getString("colosseum.tenant").get()));
+    }
+
+    /**
+     * @return the placement service, persisting its statistics in the file configured by the
+     * optional colosseum.placement.file property.
+     */
+    public static PlacementService createPlacementService(Properties properties)
+            throws IOException {
+        Configuration configuration = new ConfigurationImpl(properties);
+        final Optional<String> file = configuration.getString("colosseum.placement.file");
+        if (!file.isPresent()) {
+            return new PlacementService();
+        }
+        return PlacementService.load(new File(file.get()));
+    }
+
     public static Set<CloudConfiguration> load(Properties properties) {
 
         Configuration config = new ConfigurationImpl(properties);
@@ -202,10 +242,11 @@ public class ConfigurationLoader {
             return hardwareId;
         }
 
-        public String getLocationId() {
-            ArrayList<String> ids = new ArrayList<>(locationId);
-            Collections.shuffle(ids);
-            return ids.get(0);
+        /**
+         * @return the locations virtual machines may be placed in, see {@link PlacementService}.
+         */
+        public Set<String> getLocationIds() {
+            return Collections.unmodifiableSet(locationId);
         }
 
         public String getImageId() {
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import de.uniulm.omi.cloudiator.colosseum.client.entities.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * The entities created by the {@link TopologyExecutor} for a {@link Topology}, the time each
+ * step took and when the instances were ready. Also records the entities deleted by the
+ * {@link TeardownEngine}.
+ */
+public class Deployment {
+
+    private final long created = System.currentTimeMillis();
+    private final Map<String, Object> entities = new LinkedHashMap<>();
+    private final Map<String, Long> starts = new LinkedHashMap<>();
+    private final Map<String, Long> timings = new LinkedHashMap<>();
+    private final List<Wave> waves = new ArrayList<>();
+    private final Map<String, CompletableFuture<Instance>> readiness = new LinkedHashMap<>();
+    private final Map<String, Long> ready = new LinkedHashMap<>();
+
+    synchronized void put(String node, Object entity, long start, long millis) {
+        checkNotNull(entity, "Step " + node + " did not create an entity.");
+        entities.put(node, entity);
+        starts.put(node, start - created);
+        timings.put(node, millis);
+    }
+
+    /**
+     * Tracks the readiness of the instance created by the step.
+     */
+    synchronized void track(final String node, CompletableFuture<Instance> started) {
+        readiness.put(node, started);
+        started.thenRun(() -> {
+            synchronized (Deployment.this) {
+                ready.put(node, System.currentTimeMillis() - created);
+            }
+        });
+    }
+
+    /**
+     * @return the time since the step started.
+     */
+    synchronized long millisSinceStart(String node) {
+        final Long start = starts.get(node);
+        checkState(start != null, "Step " + node + " did not run.");
+        return System.currentTimeMillis() - created - start;
+    }
+
+    synchronized void recordWave(List<String> nodes, long millis) {
+        waves.add(new Wave(nodes, millis));
+    }
+
+    /**
+     * @return the entity created by the step.
+     * @throws IllegalStateException if the step did not run (yet).
+     */
+    public synchronized <T> T get(String node, Class<T> type) {
+        final Object entity = entities.get(node);
+        checkState(entity != null, "Step " + node + " did not run.");
+        return type.cast(entity);
+    }
+
+    public synchronized boolean contains(String node) {
+        return entities.containsKey(node);
+    }
+
+    public Application getApplication() {
+        return get(TopologyExecutor.APPLICATION, Application.class);
+    }
+
+    public ApplicationInstance getApplicationInstance() {
+        return get(TopologyExecutor.APPLICATION_INSTANCE, ApplicationInstance.class);
+    }
+
+    public LifecycleComponent getLifecycleComponent(String component) {
+        return get(TopologyExecutor.lifecycleComponent(component), LifecycleComponent.class);
+    }
+
+    /**
+     * @return where the virtual machines of the component are started.
+     */
+    public Placement getPlacement(String component) {
+        return get(TopologyExecutor.placement(component), Placement.class);
+    }
+
+    public ApplicationComponent getApplicationComponent(String component) {
+        return get(TopologyExecutor.applicationComponent(component),
+                ApplicationComponent.class);
+    }
+
+    /**
+     * @return all virtual machines created so far, in creation order.
+     */
+    public synchronized List<VirtualMachine> getVirtualMachines() {
+        return ofType(VirtualMachine.class);
+    }
+
+    /**
+     * @return all instances created so far, in creation order.
+     */
+    public synchronized List<Instance> getInstances() {
+        return ofType(Instance.class);
+    }
+
+    /**
+     * @return by instance step, completed once the instance started. Only contains the
+     * instances tracked during the deployment.
+     */
+    public synchronized Map<String, CompletableFuture<Instance>> getReadiness() {
+        return ImmutableMap.copyOf(readiness);
+    }
+
+    /**
+     * @return the duration of every step in milliseconds, in the order the steps finished.
+     */
+    public synchronized Map<String, Long> getTimings() {
+        return ImmutableMap.copyOf(timings);
+    }
+
+    public synchronized List<Wave> getWaves() {
+        return ImmutableList.copyOf(waves);
+    }
+
+    /**
+     * @return the time from the start of the deployment until each step started, in the order
+     * the steps finished.
+     */
+    public synchronized Map<String, Long> getStarts() {
+        return ImmutableMap.copyOf(starts);
+    }
+
+    /**
+     * @return the time from the start of the deployment until each tracked instance started.
+     */
+    public synchronized Map<String, Long> getReady() {
+        return ImmutableMap.copyOf(ready);
+    }
+
+    /**
+     * @return a human readable report of the waves, step timings and instance readiness.
+     */
+    public synchronized String getReport() {
+        final StringBuilder report = new StringBuilder();
+        for (int i = 0; i < waves.size(); i++) {
+            final Wave wave = waves.get(i);
+            report.append("wave ").append(i).append(": ").append(wave.getMillis()).append("ms\n");
+            for (String node : wave.getNodes()) {
+                report.append("  ").append(node).append(": ").append(timings.get(node))
+                        .append("ms\n");
+            }
+        }
+        if (waves.isEmpty()) {
+            for (Map.Entry<String, Long> timing : timings.entrySet()) {
+                report.append(timing.getKey()).append(": +").append(starts.get(timing.getKey()))
+                        .append("ms ").append(timing.getValue()).append("ms\n");
+            }
+        }
+        for (Map.Entry<String, Long> started : ready.entrySet()) {
+            report.append(started.getKey()).append(" ready after ").append(started.getValue())
+                    .append("ms\n");
+        }
+        return report.toString();
+    }
+
+    private <T> List<T> ofType(Class<T> type) {
+        final List<T> result = new ArrayList<>();
+        for (Object entity : entities.values()) {
+            if (type.isInstance(entity)) {
+                result.add(type.cast(entity));
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Steps which ran in parallel.
+     */
+    public static class Wave {
+
+        private final List<String> nodes;
+        private final long millis;
+
+        private Wave(List<String> nodes, long millis) {
+            this.nodes = ImmutableList.copyOf(nodes);
+            this.millis = millis;
+        }
+
+        public List<String> getNodes() {
+            return nodes;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Steps of a deployment and their dependencies.
+ * <p>
+ * The graph is either executed in waves: a wave holds all steps whose dependencies finished in
+ * earlier waves, its steps run in parallel and the next wave starts once all of them finished.
+ * Or it is pipelined: every step starts as soon as its own dependencies finished, so a slow
+ * step only delays the steps depending on it.
+ */
+public class DeploymentGraph {
+
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+
+    /**
+     * Adds a step, its dependencies may be added later.
+     *
+     * @param action creates the entity of the step, stored in the deployment under the id.
+     */
+    public DeploymentGraph add(String id, Collection<String> dependencies,
+            Supplier<?> action) {
+        checkNotNull(id);
+        checkNotNull(action);
+        checkArgument(!nodes.containsKey(id), "Duplicate node " + id);
+        nodes.put(id, new Node(id, ImmutableSet.copyOf(dependencies), action));
+        return this;
+    }
+
+    public boolean contains(String id) {
+        return nodes.containsKey(id);
+    }
+
+    /**
+     * @return the steps grouped by the wave they run in.
+     * @throws IllegalStateException if a dependency is missing or the steps form a cycle.
+     */
+    public List<List<Node>> waves() {
+        final Map<String, Integer> levels = new HashMap<>(nodes.size() * 2);
+        final List<List<Node>> waves = new ArrayList<>();
+        for (Node node : nodes.values()) {
+            final int level = level(node, levels, new ArrayList<>());
+            while (waves.size() <= level) {
+                waves.add(new ArrayList<>());
+            }
+            waves.get(level).add(node);
+        }
+        return waves;
+    }
+
+    private int level(Node node, Map<String, Integer> levels, List<String> path) {
+        final Integer known = levels.get(node.id);
+        if (known != null) {
+            return known;
+        }
+        checkState(!path.contains(node.id), "Cycle " + path + " -> " + node.id);
+        path.add(node.id);
+        int level = 0;
+        for (String dependency : node.dependencies) {
+            final Node dependencyNode = nodes.get(dependency);
+            checkState(dependencyNode != null,
+                    "Unknown dependency " + dependency + " of " + node.id);
+            level = Math.max(level, level(dependencyNode, levels, path) + 1);
+        }
+        path.remove(path.size() - 1);
+        levels.put(node.id, level);
+        return level;
+    }
+
+    /**
+     * Runs the steps wave by wave.
+     *
+     * @see #execute(Deployment, int, Scheduling)
+     */
+    public void execute(Deployment deployment, int parallelism) {
+        execute(deployment, parallelism, Scheduling.WAVES);
+    }
+
+    /**
+     * Runs the steps.
+     *
+     * @param parallelism the maximum number of steps running at the same time.
+     * @throws IllegalStateException with the failure of the first failed step, once all steps
+     *                               not depending on it finished. In waves, no further wave is
+     *                               started after a failure.
+     */
+    public void execute(Deployment deployment, int parallelism, Scheduling scheduling) {
+        checkNotNull(deployment);
+        checkArgument(parallelism > 0, "parallelism must be positive");
+        checkNotNull(scheduling);
+        final List<List<Node>> waves = waves();
+        final ExecutorService executor = Executors.newFixedThreadPool(parallelism,
+                new ThreadFactoryBuilder().setNameFormat("deployment-%d").setDaemon(true)
+                        .build());
+        try {
+            switch (scheduling) {
+                case WAVES:
+                    executeWaves(waves, deployment, executor);
+                    break;
+                case PIPELINED:
+                    executePipelined(waves, deployment, executor);
+                    break;
+                default:
+                    throw new AssertionError("unknown scheduling " + scheduling);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void executeWaves(List<List<Node>> waves, Deployment deployment,
+            Executor executor) {
+        for (List<Node> wave : waves) {
+            final long start = System.currentTimeMillis();
+            final Map<Node, CompletableFuture<Void>> running = new LinkedHashMap<>();
+            for (final Node node : wave) {
+                running.put(node,
+                        CompletableFuture.runAsync(() -> run(node, deployment), executor));
+            }
+            CompletableFuture
+                    .allOf(running.values().toArray(new CompletableFuture[running.size()]))
+                    .exceptionally(throwable -> null).join();
+            final List<String> ids = new ArrayList<>(wave.size());
+            for (Node node : wave) {
+                ids.add(node.id);
+            }
+            deployment.recordWave(ids, System.currentTimeMillis() - start);
+
+            rethrowFirstFailure(running);
+        }
+    }
+
+    private static void executePipelined(List<List<Node>> waves, final Deployment deployment,
+            Executor executor) {
+        // waves are a topological order, dependencies are always scheduled first
+        final Map<Node, CompletableFuture<Void>> running = new LinkedHashMap<>();
+        final Map<String, CompletableFuture<Void>> byId = new HashMap<>();
+        for (List<Node> wave : waves) {
+            for (final Node node : wave) {
+                final List<CompletableFuture<Void>> dependencies = new ArrayList<>();
+                for (String dependency : node.dependencies) {
+                    dependencies.add(byId.get(dependency));
+                }
+                final CompletableFuture<Void> future = CompletableFuture
+                        .allOf(dependencies.toArray(new CompletableFuture[dependencies.size()]))
+                        .thenRunAsync(() -> run(node, deployment), executor);
+                running.put(node, future);
+                byId.put(node.id, future);
+            }
+        }
+        CompletableFuture.allOf(running.values().toArray(new CompletableFuture[running.size()]))
+                .exceptionally(throwable -> null).join();
+        rethrowFirstFailure(running);
+    }
+
+    /**
+     * Steps are in topological order, so the first failed step is a root cause and not a step
+     * skipped because of a failed dependency.
+     */
+    private static void rethrowFirstFailure(Map<Node, CompletableFuture<Void>> running) {
+        for (Map.Entry<Node, CompletableFuture<Void>> entry : running.entrySet()) {
+            try {
+                entry.getValue().join();
+            } catch (CompletionException e) {
+                throw new IllegalStateException("Deployment of " + entry.getKey().id + " failed.",
+                        e.getCause());
+            }
+        }
+    }
+
+    private static void run(Node node, Deployment deployment) {
+        final long start = System.currentTimeMillis();
+        final Object result = node.action.get();
+        deployment.put(node.id, result, start, System.currentTimeMillis() - start);
+    }
+
+
+    public enum Scheduling {
+        WAVES, PIPELINED
+    }
+
+
+    public static class Node {
+
+        private final String id;
+        private final Set<String> dependencies;
+        private final Supplier<?> action;
+
+        private Node(String id, Set<String> dependencies, Supplier<?> action) {
+            this.id = id;
+            this.dependencies = dependencies;
+            this.action = action;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Set<String> getDependencies() {
+            return dependencies;
+        }
+
+        @Override
+        public String toString() {
+            return id;
+        }
+    }
+}
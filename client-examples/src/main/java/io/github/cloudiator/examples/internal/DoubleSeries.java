@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+
+/**
+ * A growable series of timestamp/value pairs stored in primitive columns.
+ * <p>
+ * Once the columns have grown to the required size, {@link #clear()} and refilling the series
+ * does not allocate. Timestamps are expected in ascending order. Not thread safe.
+ */
+public class DoubleSeries {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private long[] timestamps;
+    private double[] values;
+    // index of the first valid element, advanced by removeBefore
+    private int head;
+    // index behind the last valid element
+    private int tail;
+
+    public DoubleSeries() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public DoubleSeries(int initialCapacity) {
+        checkArgument(initialCapacity > 0, "initialCapacity must be positive");
+        this.timestamps = new long[initialCapacity];
+        this.values = new double[initialCapacity];
+    }
+
+    public void add(long timestamp, double value) {
+        if (tail == timestamps.length) {
+            makeRoom();
+        }
+        timestamps[tail] = timestamp;
+        values[tail] = value;
+        tail++;
+    }
+
+    private void makeRoom() {
+        final int size = size();
+        if (head > 0 && size <= timestamps.length / 2) {
+            // enough space freed by removeBefore, compact instead of growing
+            System.arraycopy(timestamps, head, timestamps, 0, size);
+            System.arraycopy(values, head, values, 0, size);
+        } else {
+            final int capacity = timestamps.length * 2;
+            long[] newTimestamps = new long[capacity];
+            double[] newValues = new double[capacity];
+            System.arraycopy(timestamps, head, newTimestamps, 0, size);
+            System.arraycopy(values, head, newValues, 0, size);
+            timestamps = newTimestamps;
+            values = newValues;
+        }
+        head = 0;
+        tail = size;
+    }
+
+    public int size() {
+        return tail - head;
+    }
+
+    public boolean isEmpty() {
+        return tail == head;
+    }
+
+    public long timestamp(int index) {
+        checkElementIndex(index, size());
+        return timestamps[head + index];
+    }
+
+    public double value(int index) {
+        checkElementIndex(index, size());
+        return values[head + index];
+    }
+
+    /**
+     * @return the timestamp of the newest element or {@link Long#MIN_VALUE} if empty.
+     */
+    public long lastTimestamp() {
+        return isEmpty() ? Long.MIN_VALUE : timestamps[tail - 1];
+    }
+
+    /**
+     * Removes all elements with a timestamp before the given one.
+     */
+    public void removeBefore(long timestamp) {
+        int index = Arrays.binarySearch(timestamps, head, tail, timestamp);
+        if (index < 0) {
+            index = -index - 1;
+        } else {
+            // binarySearch does not guarantee the first of several equal timestamps
+            while (index > head && timestamps[index - 1] == timestamp) {
+                index--;
+            }
+        }
+        head = index;
+        if (head == tail) {
+            head = 0;
+            tail = 0;
+        }
+    }
+
+    public void clear() {
+        head = 0;
+        tail = 0;
+    }
+
+    public double max() {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = head; i < tail; i++) {
+            max = Math.max(max, values[i]);
+        }
+        return max;
+    }
+
+    public double min() {
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = head; i < tail; i++) {
+            min = Math.min(min, values[i]);
+        }
+        return min;
+    }
+
+    public double sum() {
+        double sum = 0;
+        for (int i = head; i < tail; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    /**
+     * @return a copy of the values.
+     */
+    public double[] toValueArray() {
+        return Arrays.copyOfRange(values, head, tail);
+    }
+
+    /**
+     * @return a copy of the timestamps.
+     */
+    public long[] toTimestampArray() {
+        return Arrays.copyOfRange(timestamps, head, tail);
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import de.uniulm.omi.cloudiator.colosseum.client.Client;
+import de.uniulm.omi.cloudiator.colosseum.client.entities.*;
+import de.uniulm.omi.cloudiator.colosseum.client.entities.internal.Entity;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Per provisioning run cache of the remote entities.
+ * <p>
+ * Every entity type is listed once and then looked up via indexes, e.g. clouds by name or
+ * images by cloud and provider id. Entities created or updated through the cache's user have
+ * to be announced via {@link #put(Class, Entity)} or {@link #invalidate(Class)}.
+ * <p>
+ * With an {@link EntityIdCache} indexed lookups first try the id remembered by a previous run.
+ * The id is verified by fetching the single entity and checking its key, stale ids are
+ * dropped and the type is listed as usual.
+ */
+public class EntityCache {
+
+    private static final Logger LOGGER = LogManager.getLogger(EntityCache.class);
+
+    public static final Index<Api> API_BY_NAME = new Index<>(Api.class, Api::getName);
+    public static final Index<Cloud> CLOUD_BY_NAME = new Index<>(Cloud.class, Cloud::getName);
+    public static final Index<Tenant> TENANT_BY_NAME = new Index<>(Tenant.class, Tenant::getName);
+    public static final Index<LifecycleComponent> LIFECYCLE_COMPONENT_BY_NAME =
+        new Index<>(LifecycleComponent.class, LifecycleComponent::getName);
+    public static final Index<VirtualMachineTemplate> VIRTUAL_MACHINE_TEMPLATE_BY_COMPONENTS =
+        new Index<>(VirtualMachineTemplate.class, input -> key(input.getCloud(),
+            input.getLocation() + "/" + input.getImage() + "/" + input.getHardware()));
+    public static final Index<CloudProperty> CLOUD_PROPERTY_BY_CLOUD_AND_KEY =
+        new Index<>(CloudProperty.class, input -> key(input.getCloud(), input.getKey()));
+    public static final Index<Image> IMAGE_BY_CLOUD_AND_PROVIDER_ID =
+        new Index<>(Image.class, input -> key(input.getCloud(), input.getProviderId()));
+    public static final Index<Location> LOCATION_BY_CLOUD_AND_PROVIDER_ID =
+        new Index<>(Location.class, input -> key(input.getCloud(), input.getProviderId()));
+    public static final Index<Hardware> HARDWARE_BY_CLOUD_AND_PROVIDER_ID =
+        new Index<>(Hardware.class, input -> key(input.getCloud(), input.getProviderId()));
+    public static final Index<Application> APPLICATION_BY_NAME =
+        new Index<>(Application.class, Application::getName);
+    public static final Index<ApplicationComponent> APPLICATION_COMPONENT_BY_REFERENCES =
+        new Index<>(ApplicationComponent.class,
+            input -> join(input.getApplication(), input.getComponent(),
+                input.getVirtualMachineTemplate()));
+    public static final Index<PortProvided> PORT_PROVIDED_BY_COMPONENT_AND_NAME =
+        new Index<>(PortProvided.class,
+            input -> join(input.getApplicationComponent(), input.getName()));
+    public static final Index<PortRequired> PORT_REQUIRED_BY_COMPONENT_AND_NAME =
+        new Index<>(PortRequired.class,
+            input -> join(input.getApplicationComponent(), input.getName()));
+    public static final Index<Communication> COMMUNICATION_BY_PORTS =
+        new Index<>(Communication.class,
+            input -> join(input.getRequiredPort(), input.getProvidedPort()));
+    public static final Index<Schedule> SCHEDULE_BY_INTERVAL =
+        new Index<>(Schedule.class, input -> join(input.getInterval(), input.getTimeUnit()));
+    public static final Index<TimeWindow> TIME_WINDOW_BY_INTERVAL =
+        new Index<>(TimeWindow.class, input -> join(input.getInterval(), input.getTimeUnit()));
+    public static final Index<SensorDescription> SENSOR_DESCRIPTION_BY_CLASS_AND_METRIC =
+        new Index<>(SensorDescription.class,
+            input -> join(input.getClassName(), input.getMetricName()));
+    public static final Index<ComponentHorizontalOutScalingAction> SCALE_OUT_BY_COMPONENT =
+        new Index<>(ComponentHorizontalOutScalingAction.class,
+            input -> join(input.getApplicationComponent()));
+    public static final Index<ComponentHorizontalInScalingAction> SCALE_IN_BY_COMPONENT =
+        new Index<>(ComponentHorizontalInScalingAction.class,
+            input -> join(input.getApplicationComponent()));
+    public static final Index<RawMonitor> RAW_MONITOR_BY_REFERENCES =
+        new Index<>(RawMonitor.class,
+            input -> join(input.getComponent(), input.getSensorDescription(),
+                input.getSensorConfigurations(), input.getSchedule()));
+    public static final Index<ComposedMonitor> COMPOSED_MONITOR_BY_REFERENCES =
+        new Index<>(ComposedMonitor.class,
+            input -> join(input.getMonitors(), input.getFlowOperator(), input.getFunction(),
+                input.getWindow(), input.getSchedule()));
+    public static final Index<MonitorSubscription> MONITOR_SUBSCRIPTION_BY_MONITOR =
+        new Index<>(MonitorSubscription.class,
+            input -> join(input.getMonitor(), input.getType(), input.getEndpoint(),
+                input.getFilterType(), input.getFilterValue()));
+
+    private final Client client;
+    private final Map<Class<?>, Supplier<Snapshot<?>>> snapshots = new ConcurrentHashMap<>();
+    @Nullable
+    private final EntityIdCache idCache;
+    private final Waiter waiter;
+    private final Map<Class<?>, Map<String, Entity>> verified = new ConcurrentHashMap<>();
+
+    public EntityCache(Client client) {
+        this(client, null);
+    }
+
+    public EntityCache(Client client, @Nullable EntityIdCache idCache) {
+        this(client, idCache, new WaiterBuilder().createWaiter());
+    }
+
+    public EntityCache(Client client, @Nullable EntityIdCache idCache, Waiter waiter) {
+        checkNotNull(client);
+        checkNotNull(waiter);
+        this.client = client;
+        this.idCache = idCache;
+        this.waiter = waiter;
+    }
+
+    /**
+     * @return the key of the cloud scoped indexes.
+     */
+    public static String key(Long cloud, String providerId) {
+        return cloud + "/" + providerId;
+    }
+
+    /**
+     * @return the key of the indexes over the references of an entity.
+     */
+    private static String join(Object... parts) {
+        return Joiner.on('/').useForNull("null").join(parts);
+    }
+
+    /**
+     * @return all entities of the type, listed on first use.
+     */
+    public <T extends Entity> List<T> list(Class<T> type) {
+        return snapshot(type).entities;
+    }
+
+    public <T extends Entity> Optional<T> get(Index<T> index, String key) {
+        if (idCache != null && !snapshots.containsKey(index.type)) {
+            final Optional<T> remembered = remembered(index, key);
+            if (remembered.isPresent()) {
+                return remembered;
+            }
+        }
+        final T entity = snapshot(index.type).index(index).get(key);
+        if (entity != null) {
+            remember(index, key, entity);
+        }
+        return Optional.fromNullable(entity);
+    }
+
+    /**
+     * Looks the entity up and, if it does not exist yet, waits for it to appear remotely.
+     */
+    public <T extends Entity> Optional<T> waitAndGet(final Index<T> index, final String key,
+        long timeout, TimeUnit unit) {
+        Optional<T> cached = get(index, key);
+        if (cached.isPresent()) {
+            return cached;
+        }
+        final Optional<T> remote = waiter
+            .awaitSingle(client, index.type, entity -> key.equals(index.keyOf(entity)), timeout,
+                unit);
+        if (remote.isPresent()) {
+            put(index.type, remote.get());
+            remember(index, key, remote.get());
+        }
+        return remote;
+    }
+
+    /**
+     * Replaces the cached version of the entity, or adds it, without listing the type again.
+     */
+    public <T extends Entity> void put(Class<T> type, T entity) {
+        checkNotNull(entity.getId());
+        Supplier<Snapshot<?>> current;
+        while ((current = snapshots.get(type)) != null) {
+            final Snapshot<T> snapshot;
+            try {
+                snapshot = (Snapshot<T>) current.get();
+            } catch (RuntimeException e) {
+                //the listing failed, the next use lists the type again
+                snapshots.remove(type, current);
+                break;
+            }
+            final Supplier<Snapshot<?>> updated = Suppliers.ofInstance(snapshot.with(entity));
+            if (snapshots.replace(type, current, updated)) {
+                break;
+            }
+        }
+        final Map<String, Entity> verifiedOfType = verified.get(type);
+        if (verifiedOfType != null) {
+            verifiedOfType.replaceAll(
+                (key, existing) -> entity.getId().equals(existing.getId()) ? entity : existing);
+        }
+    }
+
+    /**
+     * Forces the type to be listed again on its next use.
+     */
+    public void invalidate(Class<?> type) {
+        snapshots.remove(type);
+        verified.remove(type);
+    }
+
+    /**
+     * @return the entity with the id remembered by the id cache, absent if the id is unknown or
+     * stale.
+     */
+    private <T extends Entity> Optional<T> remembered(Index<T> index, String key) {
+        checkNotNull(idCache);
+        final Map<String, Entity> verifiedOfType =
+            verified.computeIfAbsent(index.type, type -> new ConcurrentHashMap<>());
+        final T known = (T) verifiedOfType.get(key);
+        if (known != null) {
+            return Optional.of(known);
+        }
+        final Optional<Long> id = idCache.get(index.type, key);
+        if (!id.isPresent()) {
+            return Optional.absent();
+        }
+        T entity;
+        try {
+            entity = client.controller(index.type).get(id.get());
+        } catch (RuntimeException e) {
+            entity = null;
+        }
+        if (entity == null || !key.equals(index.keyOf(entity))) {
+            LOGGER.debug("Dropping stale id " + id.get() + " of " + index.type.getSimpleName() + " "
+                + key);
+            idCache.remove(index.type, key);
+            return Optional.absent();
+        }
+        verifiedOfType.put(key, entity);
+        return Optional.of(entity);
+    }
+
+    private <T extends Entity> void remember(Index<T> index, String key, T entity) {
+        if (idCache != null) {
+            idCache.put(index.type, key, entity.getId());
+        }
+    }
+
+    /**
+     * Lists the type on its first use. The listing runs outside of the map, concurrent users of
+     * the same type wait for the same listing, users of other types are not blocked.
+     */
+    private <T extends Entity> Snapshot<T> snapshot(Class<T> type) {
+        Supplier<Snapshot<?>> snapshot = snapshots.get(type);
+        if (snapshot == null) {
+            final Supplier<Snapshot<?>> listing =
+                Suppliers.memoize(() -> new Snapshot<T>(client.controller(type).getList()));
+            snapshot = snapshots.putIfAbsent(type, listing);
+            if (snapshot == null) {
+                snapshot = listing;
+            }
+        }
+        return (Snapshot<T>) snapshot.get();
+    }
+
+
+    /**
+     * A lookup of entities of one type by a string key.
+     */
+    public static final class Index<T extends Entity> {
+
+        private final Class<T> type;
+        private final Function<T, String> key;
+
+        public Index(Class<T> type, Function<T, String> key) {
+            checkNotNull(type);
+            checkNotNull(key);
+            this.type = type;
+            this.key = key;
+        }
+
+        public Class<T> getType() {
+            return type;
+        }
+
+        public String keyOf(T entity) {
+            return key.apply(entity);
+        }
+    }
+
+
+    private static class Snapshot<T extends Entity> {
+
+        private final List<T> entities;
+        private final Map<Index<T>, Map<String, T>> indexes = new ConcurrentHashMap<>();
+
+        private Snapshot(List<T> entities) {
+            this.entities = ImmutableList.copyOf(entities);
+        }
+
+        private Map<String, T> index(Index<T> index) {
+            return indexes.computeIfAbsent(index, key -> {
+                Map<String, T> map = new HashMap<>(entities.size() * 2);
+                for (T entity : entities) {
+                    map.putIfAbsent(index.keyOf(entity), entity);
+                }
+                return map;
+            });
+        }
+
+        private Snapshot<T> with(T entity) {
+            List<T> updated = new ArrayList<>(entities.size() + 1);
+            for (T existing : entities) {
+                if (!entity.getId().equals(existing.getId())) {
+                    updated.add(existing);
+                }
+            }
+            updated.add(entity);
+            return new Snapshot<>(updated);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import com.google.common.base.Optional;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * On disk cache of the ids of looked up entities, e.g. the id of an image by its cloud and
+ * provider id, so that a restarted example does not have to list all entities again.
+ * <p>
+ * The cache is stored as properties file. Entries are only valid for the colosseum server and
+ * tenant (the scope) and the file format version they were written with, otherwise the file is
+ * ignored. The ids themselves may be stale, users have to verify them, see
+ * {@link EntityCache}.
+ */
+public class EntityIdCache {
+
+    private static final Logger LOGGER = LogManager.getLogger(EntityIdCache.class);
+
+    static final String VERSION = "1";
+    private static final String VERSION_KEY = "_version";
+    private static final String SCOPE_KEY = "_scope";
+
+    private final File file;
+    private final Properties ids;
+
+    private EntityIdCache(File file, Properties ids) {
+        this.file = file;
+        this.ids = ids;
+    }
+
+    /**
+     * Loads the cache, an absent file or a file of another scope or version results in an
+     * empty cache.
+     *
+     * @param scope identifies the server and tenant the ids belong to.
+     */
+    public static EntityIdCache load(File file, String scope) throws IOException {
+        checkNotNull(file);
+        checkNotNull(scope);
+        final Properties ids = new Properties();
+        if (file.isFile()) {
+            try (InputStream inputStream = new FileInputStream(file)) {
+                ids.load(inputStream);
+            }
+            if (!VERSION.equals(ids.getProperty(VERSION_KEY)) || !scope
+                    .equals(ids.getProperty(SCOPE_KEY))) {
+                LOGGER.info("Ignoring entity id cache " + file + " of other version or scope.");
+                ids.clear();
+            }
+        }
+        ids.setProperty(VERSION_KEY, VERSION);
+        ids.setProperty(SCOPE_KEY, scope);
+        return new EntityIdCache(file, ids);
+    }
+
+    public synchronized Optional<Long> get(Class<?> type, String key) {
+        final String id = ids.getProperty(property(type, key));
+        if (id == null) {
+            return Optional.absent();
+        }
+        try {
+            return Optional.of(Long.valueOf(id));
+        } catch (NumberFormatException e) {
+            return Optional.absent();
+        }
+    }
+
+    /**
+     * Stores the id, the file is only written if the id changed.
+     */
+    public synchronized void put(Class<?> type, String key, Long id) {
+        checkNotNull(id);
+        final Object previous = ids.setProperty(property(type, key), id.toString());
+        if (!id.toString().equals(previous)) {
+            save();
+        }
+    }
+
+    /**
+     * Removes a stale id.
+     */
+    public synchronized void remove(Class<?> type, String key) {
+        if (ids.remove(property(type, key)) != null) {
+            save();
+        }
+    }
+
+    public synchronized int size() {
+        return ids.size() - 2;
+    }
+
+    private static String property(Class<?> type, String key) {
+        checkNotNull(type);
+        checkNotNull(key);
+        return type.getSimpleName() + "." + key;
+    }
+
+    /**
+     * Writes the cache, failures are logged as the cache only saves time.
+     */
+    private void save() {
+        try {
+            final File temp = new File(file.getAbsoluteFile().getParentFile(),
+                    file.getName() + ".tmp");
+            try (OutputStream outputStream = new FileOutputStream(temp)) {
+                ids.store(outputStream, "cloudiator examples entity id cache");
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Could not write entity id cache " + file, e);
+        }
+    }
+}
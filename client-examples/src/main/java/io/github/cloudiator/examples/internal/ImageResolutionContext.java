@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import de.uniulm.omi.cloudiator.colosseum.client.Client;
+import de.uniulm.omi.cloudiator.colosseum.client.entities.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * The entities of one cloud shared by the visitors provisioning it.
+ * <p>
+ * Every entity is resolved once and independently of the others: the first visitor asking
+ * for the image waits for its discovery while the other visitors asking for the image wait for
+ * that visitor, but the cloud and tenant stay available meanwhile. Changes to the image and its
+ * operating system are collected and written by a single {@link #commit()}.
+ */
+class ImageResolutionContext {
+
+    private static final String ADMIN_TENANT = "admin";
+
+    private final ConfigurationLoader.CloudConfiguration cloudConfiguration;
+    private final Client client;
+    private final EntityCache entityCache;
+    private final long timeout;
+    private final TimeUnit timeoutUnit;
+
+    // every entity is memoized on its own, so cheap lookups never wait for the image
+    private final Supplier<Cloud> cloud = Suppliers.memoize(this::findCloud);
+    private final Supplier<Image> image = Suppliers.memoize(this::findImage);
+    private final Supplier<OperatingSystem> operatingSystem =
+            Suppliers.memoize(this::findOperatingSystem);
+    private final Supplier<Tenant> tenant = Suppliers.memoize(this::findTenant);
+
+    // guard the changes of the image and of its operating system
+    private final Object imageLock = new Object();
+    private final Object operatingSystemLock = new Object();
+    private boolean imageChanged = false;
+    private boolean operatingSystemChanged = false;
+
+    ImageResolutionContext(ConfigurationLoader.CloudConfiguration cloudConfiguration,
+            Client client, EntityCache entityCache, long timeout, TimeUnit timeoutUnit) {
+        checkNotNull(cloudConfiguration);
+        checkNotNull(client);
+        checkNotNull(entityCache);
+        checkNotNull(timeoutUnit);
+        this.cloudConfiguration = cloudConfiguration;
+        this.client = client;
+        this.entityCache = entityCache;
+        this.timeout = timeout;
+        this.timeoutUnit = timeoutUnit;
+    }
+
+    Cloud cloud() {
+        return cloud.get();
+    }
+
+    Image image() {
+        return image.get();
+    }
+
+    OperatingSystem operatingSystem() {
+        return operatingSystem.get();
+    }
+
+    Tenant tenant() {
+        return tenant.get();
+    }
+
+    /**
+     * Applies the change to the image, it is written on {@link #commit()}.
+     */
+    void updateImage(Consumer<Image> change) {
+        final Image resolved = image();
+        synchronized (imageLock) {
+            change.accept(resolved);
+            imageChanged = true;
+        }
+    }
+
+    /**
+     * Applies the change to the operating system of the image, it is written on
+     * {@link #commit()}.
+     */
+    void updateOperatingSystem(Consumer<OperatingSystem> change) {
+        final OperatingSystem resolved = operatingSystem();
+        synchronized (operatingSystemLock) {
+            change.accept(resolved);
+            operatingSystemChanged = true;
+        }
+    }
+
+    /**
+     * Writes the collected changes, one update per changed entity.
+     */
+    void commit() {
+        synchronized (imageLock) {
+            if (imageChanged) {
+                client.controller(Image.class).update(image());
+                entityCache.put(Image.class, image());
+                imageChanged = false;
+            }
+        }
+        synchronized (operatingSystemLock) {
+            if (operatingSystemChanged) {
+                client.controller(OperatingSystem.class).update(operatingSystem());
+                operatingSystemChanged = false;
+            }
+        }
+    }
+
+    private Cloud findCloud() {
+        final Optional<Cloud> found =
+                entityCache.get(EntityCache.CLOUD_BY_NAME, cloudConfiguration.getName());
+        checkState(found.isPresent(), "Cloud " + cloudConfiguration.getName()
+                + " has to be created before its image is resolved.");
+        return found.get();
+    }
+
+    private Image findImage() {
+        final Optional<Image> found = entityCache
+                .waitAndGet(EntityCache.IMAGE_BY_CLOUD_AND_PROVIDER_ID,
+                        EntityCache.key(cloud().getId(), cloudConfiguration.getImageId()),
+                        timeout, timeoutUnit);
+        checkState(found.isPresent(), "Image " + cloudConfiguration.getImageId()
+                + " was not discovered in cloud " + cloudConfiguration.getName() + ".");
+        return found.get();
+    }
+
+    private OperatingSystem findOperatingSystem() {
+        return client.controller(OperatingSystem.class).get(image().getOperatingSystem());
+    }
+
+    private Tenant findTenant() {
+        // todo workaround for cloud credential requiring a tenant...
+        final Optional<Tenant> found = entityCache.get(EntityCache.TENANT_BY_NAME, ADMIN_TENANT);
+        checkState(found.isPresent(), "Tenant " + ADMIN_TENANT + " does not exist.");
+        return found.get();
+    }
+}
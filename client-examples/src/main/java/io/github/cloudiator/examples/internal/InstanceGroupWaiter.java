@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import com.google.common.base.Optional;
+import de.uniulm.omi.cloudiator.colosseum.client.Client;
+import de.uniulm.omi.cloudiator.colosseum.client.entities.Instance;
+import de.uniulm.omi.cloudiator.colosseum.client.entities.enums.RemoteState;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Waits for a group of instances to start.
+ * <p>
+ * All pending instances are refreshed by a single list call per poll instead of one get per
+ * instance, so the load on the server does not grow with the group. The future of an instance
+ * completes as soon as the instance is started and fails as soon as it is in error. As the
+ * group fails with its first instance, the futures of the other pending instances then fail
+ * as well.
+ */
+public class InstanceGroupWaiter {
+
+    private final Client client;
+    private final Waiter waiter;
+    private final Map<Long, CompletableFuture<Instance>> pending = new ConcurrentHashMap<>();
+    private final List<CompletableFuture<Instance>> tracked = new ArrayList<>();
+
+    public InstanceGroupWaiter(Client client, Waiter waiter) {
+        checkNotNull(client);
+        checkNotNull(waiter);
+        this.client = client;
+        this.waiter = waiter;
+    }
+
+    /**
+     * Adds the instance to the group.
+     *
+     * @return completed with the started instance.
+     */
+    public synchronized CompletableFuture<Instance> track(Instance instance) {
+        checkNotNull(instance.getId());
+        final CompletableFuture<Instance> future =
+                pending.computeIfAbsent(instance.getId(), id -> new CompletableFuture<>());
+        tracked.add(future);
+        return future;
+    }
+
+    /**
+     * @return the number of instances which did not start yet.
+     */
+    public int getPending() {
+        return pending.size();
+    }
+
+    /**
+     * Polls until all tracked instances started.
+     *
+     * @return the started instances in the order they were tracked.
+     * @throws IllegalStateException as soon as an instance is in error or was deleted, or if the
+     *                               timeout passed.
+     */
+    public List<Instance> awaitAll(long timeout, TimeUnit unit) {
+        final AtomicReference<IllegalStateException> failure = new AtomicReference<>();
+        final Optional<Boolean> finished = waiter.await(() -> {
+            failure.compareAndSet(null, poll());
+            return pending.isEmpty() || failure.get() != null ? Optional.of(true) :
+                    Optional.<Boolean>absent();
+        }, timeout, unit);
+        if (failure.get() != null) {
+            abort(new IllegalStateException(
+                    "Instance group failed: " + failure.get().getMessage(), failure.get()));
+            throw new IllegalStateException(failure.get().getMessage(), failure.get());
+        }
+        if (!finished.isPresent()) {
+            final int remaining = abort(new TimeoutException(
+                    "Instance did not start within " + timeout + " " + unit + "."));
+            throw new IllegalStateException(
+                    remaining + " instances did not start within " + timeout + " " + unit + ".");
+        }
+
+        final List<Instance> instances;
+        synchronized (this) {
+            instances = new ArrayList<>(tracked.size());
+            for (CompletableFuture<Instance> future : tracked) {
+                instances.add(future.join());
+            }
+        }
+        return instances;
+    }
+
+    /**
+     * Refreshes all pending instances with one list call.
+     *
+     * @return the failure of the first instance found in error or deleted, null if none.
+     */
+    @Nullable
+    IllegalStateException poll() {
+        if (pending.isEmpty()) {
+            return null;
+        }
+        final Map<Long, Instance> remote = new HashMap<>(pending.size() * 2);
+        for (Instance instance : client.controller(Instance.class).getList()) {
+            if (pending.containsKey(instance.getId())) {
+                remote.put(instance.getId(), instance);
+            }
+        }
+        IllegalStateException failure = null;
+        for (Long id : pending.keySet()) {
+            final Instance instance = remote.get(id);
+            IllegalStateException exception = null;
+            if (instance == null) {
+                exception = new IllegalStateException("Instance " + id + " was deleted.");
+            } else if (RemoteState.ERROR.equals(instance.getRemoteState())) {
+                exception = new IllegalStateException("Starting of instance " + id + " failed.");
+            } else if (RemoteState.OK.equals(instance.getRemoteState())) {
+                pending.remove(id).complete(instance);
+            }
+            if (exception != null) {
+                pending.remove(id).completeExceptionally(exception);
+                if (failure == null) {
+                    failure = exception;
+                }
+            }
+        }
+        return failure;
+    }
+
+    /**
+     * Fails the futures of all pending instances, so that no caller waits on them forever.
+     *
+     * @return the number of failed futures.
+     */
+    private int abort(Throwable cause) {
+        int aborted = 0;
+        for (Long id : pending.keySet()) {
+            final CompletableFuture<Instance> future = pending.remove(id);
+            if (future != null && future.completeExceptionally(cause)) {
+                aborted++;
+            }
+        }
+        return aborted;
+    }
+}
@@ -1,5 +1,17 @@
 package io.github.cloudiator.examples.internal;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.kairosdb.client.HttpClient;
@@ -8,101 +20,459 @@ import org.kairosdb.client.response.Queries;
 import org.kairosdb.client.response.QueryResponse;
 import org.kairosdb.client.response.Results;
 
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * Created by Frank on 24.11.2016.
+ * <p>
+ * Holds two pooled, keep-alive http clients for its whole lifetime, one for queries and one for
+ * pushes, each with its own pool. The connection is thread safe, writes and queries of
+ * different threads run concurrently up to the configured pool size. Use
+ * {@link KairosDbConnectionBuilder} to tune the pools and the request timeout, and {@link
+ * #close()} to release the connections.
  */
-public class KairosDbConnection {
-    private static final int PULL_DELAY = 5000;
+public class KairosDbConnection implements MetricWriter {
+    static final int PULL_DELAY = 5000;
     //TODO maybe not needed anymore, since now visor immediately pushes values
     private static final int MAX_RETRY = 2;
-    private String url;
-    private String ip;
-    private Integer port;
+    private final String url;
+    private final String ip;
+    private final Integer port;
+    private final HttpClient httpClient;
+    private final CloseableHttpClient pushClient;
+    @Nullable
+    private final MetricSpool spool;
+    private final boolean compression;
+    private final int maxPayloadBytes;
+    private final PushStatistics pushStatistics = new PushStatistics();
 
     public static final Logger LOGGER = LogManager.getLogger(KairosDbConnection.class);
 
     public KairosDbConnection(String ip, Integer port) {
+        this(ip, port, KairosDbConnectionBuilder.DEFAULT_MAX_CONNECTIONS,
+            KairosDbConnectionBuilder.DEFAULT_KEEP_ALIVE_MILLIS, 0, null, false,
+            KairosDbConnectionBuilder.DEFAULT_MAX_PAYLOAD_BYTES);
+    }
+
+    KairosDbConnection(String ip, Integer port, int maxConnections,
+        final long keepAliveMillis, int timeoutMillis, @Nullable MetricSpool spool,
+        boolean compression, int maxPayloadBytes) {
         this.ip = ip;
         this.port = port;
+        this.spool = spool;
+        this.compression = compression;
+        this.maxPayloadBytes = maxPayloadBytes;
         this.url = "http://" + this.ip + ":" + this.port.toString();
+
+        try {
+            this.httpClient =
+                new HttpClient(clientBuilder(maxConnections, keepAliveMillis, timeoutMillis),
+                    this.url);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("URL is malformed: " + this.url, e);
+        }
+        //pushes are posted directly to control payload size and encoding
+        this.pushClient = clientBuilder(maxConnections, keepAliveMillis, timeoutMillis).build();
+    }
+
+    /**
+     * @param timeoutMillis bounds connecting, leasing a pooled connection and every read of a
+     *                      response, 0 waits forever.
+     * @return a builder with a connection manager of its own, every client closes its manager.
+     */
+    private static HttpClientBuilder clientBuilder(int maxConnections,
+        final long keepAliveMillis, int timeoutMillis) {
+        PoolingHttpClientConnectionManager connectionManager =
+            new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+        return HttpClientBuilder.create()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(RequestConfig.custom().setConnectTimeout(timeoutMillis)
+                .setConnectionRequestTimeout(timeoutMillis).setSocketTimeout(timeoutMillis)
+                .build())
+            .setKeepAliveStrategy((response, context) -> {
+                //prefer the keep alive announced by the server
+                long announced = DefaultConnectionKeepAliveStrategy.INSTANCE
+                    .getKeepAliveDuration(response, context);
+                return announced > 0 ? announced : keepAliveMillis;
+            });
     }
 
-    synchronized public void write(String metricName, List<Tag> tags, double value) {
+    @Override
+    public void write(String metricName, List<Tag> tags, double value) {
         long timeStamp = System.currentTimeMillis();
         write(metricName, tags, value, timeStamp);
     }
 
-    synchronized public void write(String metricName, List<Tag> tags, double value,
-        long timeStamp) {
+    @Override
+    public void write(String metricName, List<Tag> tags, double value, long timeStamp) {
+        write(SeriesKey.of(metricName, tags), value, timeStamp);
+    }
 
-        HttpClient httpClient = null;
-        try {
-            httpClient = new HttpClient(this.url);
-        } catch (MalformedURLException e) {
-            LOGGER.error("URL is malformed: " + this.url);
-            return;
+    @Override
+    public void write(SeriesKey series, double value, long timeStamp) {
+        push(Collections.singletonList(
+            new MetricPoint(series, value, timeStamp - PULL_DELAY /* TODO testing purpose */)));
+    }
+
+    /**
+     * Pushes the given points with a single request. Points of the same metric and tag set are
+     * sent as one series. Batches with a json payload larger than the configured maximum are
+     * split into several requests; if compression is enabled, the payload is sent gzipped.
+     *
+     * If the push fails and a {@link MetricSpool} is configured, the points which were not sent
+     * are spooled and replayed after the next successful push.
+     *
+     * @param points the points to push, timestamps are taken as they are.
+     * @return true if the points were pushed or spooled, false if they were lost.
+     */
+    public boolean push(Collection<MetricPoint> points) {
+        return pushCounted(points).getLost() == 0;
+    }
+
+    /**
+     * Like {@link #push(Collection)}, but reports how many of the points were sent, spooled
+     * or lost.
+     */
+    PushResult pushCounted(Collection<MetricPoint> points) {
+        if (points.isEmpty()) {
+            return new PushResult(0, 0, 0);
+        }
+        final List<MetricPoint> unsent = sendChunked(
+            points instanceof List ? (List<MetricPoint>) points : new ArrayList<>(points));
+        final int sent = points.size() - unsent.size();
+        if (unsent.isEmpty()) {
+            if (spool != null && spool.hasPending()) {
+                replaySpool();
+            }
+            return new PushResult(sent, 0, 0);
+        }
+        if (spool != null && spool.append(unsent)) {
+            return new PushResult(sent, unsent.size(), 0);
         }
+        return new PushResult(sent, 0, unsent.size());
+    }
 
-        MetricBuilder metricBuilder = MetricBuilder.getInstance();
+    /**
+     * Replays the spooled points, if a spool is configured.
+     *
+     * @return the number of replayed batches.
+     */
+    public int replaySpool() {
+        if (spool == null) {
+            return 0;
+        }
+        final int replayed = spool.replay(this::sendChunked);
+        if (replayed > 0) {
+            LOGGER.info(String.format("Replayed %d spooled batches to %s (%.0f points/s).",
+                replayed, this.url, spool.getReplayThroughput()));
+        }
+        return replayed;
+    }
+
+    /**
+     * Sends the points in chunks of at most the maximum payload size, stops at the first chunk
+     * which fails.
+     *
+     * @return the points of the failed chunk and all points after it, empty if all were sent.
+     */
+    private List<MetricPoint> sendChunked(List<MetricPoint> points) {
+        final byte[] json;
+        try {
+            json = toJson(points);
+        } catch (IOException e) {
+            LOGGER.error("Something went wrong on pushing metrics: " + this.url, e);
+            return points;
+        }
 
-        org.kairosdb.client.builder.Metric kairosMetric = metricBuilder.addMetric(metricName)
-            .addDataPoint(timeStamp - PULL_DELAY /* TODO testing purpose */, value);
-        //we need to add the tags
-        for (Tag t : tags) {
-            kairosMetric.addTag(t.getName(), t.getValue());
+        if (json.length > maxPayloadBytes && points.size() > 1) {
+            final int chunks = Math.min(points.size(), json.length / maxPayloadBytes + 1);
+            final int chunkSize = (points.size() + chunks - 1) / chunks;
+            int sent = 0;
+            for (List<MetricPoint> chunk : Lists.partition(points, chunkSize)) {
+                final List<MetricPoint> unsent = sendChunked(chunk);
+                if (!unsent.isEmpty()) {
+                    //the unsent points are the tail of the chunk
+                    return points.subList(sent + chunk.size() - unsent.size(), points.size());
+                }
+                sent += chunk.size();
+            }
+            return Collections.emptyList();
         }
 
         try {
-            httpClient.pushMetrics(metricBuilder);
-        } catch (URISyntaxException e) {
-            LOGGER.error("URL Syntax is malformed: " + this.url, e);
-            return;
+            return post(points, json) ? Collections.<MetricPoint>emptyList() : points;
         } catch (IOException e) {
             LOGGER.error("Something went wrong on pushing metrics: " + this.url, e);
-            return;
+            return points;
         }
     }
 
-    synchronized public List<Double> getAggregatedValue(String metricName, List<Tag> tags,
-        int time) {
+    private boolean post(List<MetricPoint> points, byte[] json) throws IOException {
+        final HttpPost post = new HttpPost(this.url + "/api/v1/datapoints");
+        final byte[] payload;
+        if (compression) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(json.length / 4 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(json);
+            }
+            payload = compressed.toByteArray();
+            //kairos accepts gzipped datapoints with this content type
+            post.setEntity(new ByteArrayEntity(payload, ContentType.create("application/gzip")));
+        } else {
+            payload = json;
+            post.setEntity(new ByteArrayEntity(payload, ContentType.APPLICATION_JSON));
+        }
 
-        Date now = new Date();
-        now.setTime(now.getTime());
+        try (CloseableHttpResponse response = pushClient.execute(post)) {
+            final int status = response.getStatusLine().getStatusCode();
+            final String body =
+                response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity());
+            if (status / 100 != 2) {
+                pushStatistics.record(points.size(), json.length, payload.length, false);
+                LOGGER.error(
+                    "Pushing metrics to " + this.url + " failed with " + status + ": " + body);
+                return false;
+            }
+        } catch (IOException e) {
+            pushStatistics.record(points.size(), json.length, payload.length, false);
+            throw e;
+        }
+        pushStatistics.record(points.size(), json.length, payload.length, true);
+        return true;
+    }
 
-        HttpClient httpClient = null;
-        try {
-            httpClient = new HttpClient(this.url);
-        } catch (MalformedURLException e) {
-            LOGGER.error("HTTP client problem: " + this.url, e);
-            return new ArrayList<Double>();
+    private static byte[] toJson(List<MetricPoint> points) throws IOException {
+        return toMetricBuilder(points).build().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static MetricBuilder toMetricBuilder(List<MetricPoint> points) {
+
+        MetricBuilder metricBuilder = MetricBuilder.getInstance();
+
+        Map<SeriesKey, org.kairosdb.client.builder.Metric> series = new HashMap<>();
+        for (MetricPoint point : points) {
+            org.kairosdb.client.builder.Metric kairosMetric = series.get(point.getSeries());
+            if (kairosMetric == null) {
+                kairosMetric = metricBuilder.addMetric(point.getMetricName());
+                //we need to add the tags
+                kairosMetric.addTags(point.tagMap());
+                series.put(point.getSeries(), kairosMetric);
+            }
+            kairosMetric.addDataPoint(point.getTimeStamp(), point.getValue());
+        }
+        return metricBuilder;
+    }
+
+    public PushStatistics getPushStatistics() {
+        return pushStatistics;
+    }
+
+    /**
+     * Every write is sent immediately, there is nothing to flush.
+     */
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Fetches all raw values of the metric within the last {@code time} seconds.
+     */
+    public List<Double> getAggregatedValue(String metricName, List<Tag> tags, int time) {
+        return toValues(metricName, query(aggregatedQuery(metricName, tags, time, null, 0)));
+    }
+
+    /**
+     * Aggregates the metric within the last {@code time} seconds on the server.
+     *
+     * @param aggregation     the aggregation to apply.
+     * @param samplingSeconds the sampling period, one value is returned per period.
+     * @return the aggregated values, oldest first.
+     */
+    public List<Double> getAggregatedValue(String metricName, List<Tag> tags, int time,
+        Aggregation aggregation, int samplingSeconds) {
+        checkArgument(samplingSeconds > 0, "samplingSeconds must be positive");
+        return toValues(metricName,
+            query(aggregatedQuery(metricName, tags, time, aggregation, samplingSeconds)));
+    }
+
+    /**
+     * Like {@link #getAggregatedValue(String, List, int, Aggregation, int)}, or without an
+     * aggregation like {@link #getAggregatedValue(String, List, int)}, but a failed query throws
+     * instead of returning an empty list.
+     *
+     * @throws UncheckedIOException if the query failed.
+     */
+    List<Double> loadAggregatedValue(String metricName, List<Tag> tags, int time,
+        @Nullable Aggregation aggregation, int samplingSeconds) {
+        return toValues(metricName,
+            execute(aggregatedQuery(metricName, tags, time, aggregation, samplingSeconds)));
+    }
+
+    private static QueryBuilder aggregatedQuery(String metricName, List<Tag> tags, int time,
+        @Nullable Aggregation aggregation, int samplingSeconds) {
+
+        QueryBuilder builder = QueryBuilder.getInstance();
+
+        builder = builder.setStart(time, TimeUnit.SECONDS);
+
+        QueryMetric queryMetric = addMetric(builder, metricName, tags);
+        if (aggregation != null) {
+            queryMetric
+                .addAggregator(aggregation.toAggregator(samplingSeconds, TimeUnit.SECONDS));
+        }
+        return builder;
+    }
+
+    /**
+     * Aggregates the metric over the complete window of the last {@code time} seconds on the
+     * server.
+     * <p>
+     * The window is queried as an absolute range of exactly one sampling period, so the server
+     * answers with a single bucket. Should it answer with several, maxima, minima, sums and
+     * counts are combined and averages and percentiles are computed from the raw values of the
+     * window instead.
+     *
+     * @return the aggregated value or absent if there was no data in the window.
+     */
+    public Optional<Double> getAggregate(String metricName, List<Tag> tags, int time,
+        Aggregation aggregation) {
+        checkArgument(time > 0, "time must be positive");
+        final long end = System.currentTimeMillis();
+        final long start = end - time * 1000L;
+
+        QueryBuilder builder = QueryBuilder.getInstance();
+
+        builder = builder.setStart(new Date(start)).setEnd(new Date(end - 1));
+
+        addMetric(builder, metricName, tags)
+            .addAggregator(aggregation.toAggregator(time, TimeUnit.SECONDS));
+
+        final List<Double> values = toValues(metricName, query(builder));
+        if (values.size() <= 1) {
+            return values.isEmpty() ? Optional.<Double>absent() : Optional.of(values.get(0));
         }
+        LOGGER.warn("Aggregating " + metricName + " over " + time + "s returned " + values.size()
+            + " buckets instead of one.");
+        if (aggregation.isCombinable()) {
+            return Optional.of(aggregation.combine(values));
+        }
+
+        QueryBuilder raw = QueryBuilder.getInstance();
+
+        raw = raw.setStart(new Date(start)).setEnd(new Date(end - 1));
+
+        addMetric(raw, metricName, tags);
+
+        final List<Double> rawValues = toValues(metricName, query(raw));
+        return rawValues.isEmpty() ? Optional.<Double>absent() :
+            Optional.of(aggregation.apply(rawValues));
+    }
+
+    /**
+     * Fetches all raw data points of the metric with a timestamp at or after {@code
+     * startMillis}, oldest first.
+     */
+    public List<DataPoint> getDataPoints(String metricName, List<Tag> tags, long startMillis) {
+
+        QueryBuilder builder = QueryBuilder.getInstance();
+
+        builder = builder.setStart(new Date(startMillis));
+
+        addMetric(builder, metricName, tags);
+
+        return query(builder);
+    }
+
+    /**
+     * Fetches all raw data points of the metric within the last {@code time} seconds into the
+     * given series, avoiding boxed values on the client side.
+     *
+     * @param into the series to fill, it is cleared first.
+     * @return the given series.
+     */
+    public DoubleSeries getSeries(String metricName, List<Tag> tags, int time,
+        DoubleSeries into) {
 
         QueryBuilder builder = QueryBuilder.getInstance();
 
         builder = builder.setStart(time, TimeUnit.SECONDS);
 
+        addMetric(builder, metricName, tags);
+
+        into.clear();
+        return appendTo(metricName, query(builder), into);
+    }
+
+    /**
+     * Appends all raw data points of the metric with a timestamp at or after {@code
+     * startMillis} to the given series.
+     *
+     * @return the given series.
+     */
+    public DoubleSeries appendSeries(String metricName, List<Tag> tags, long startMillis,
+        DoubleSeries into) {
+
+        QueryBuilder builder = QueryBuilder.getInstance();
+
+        builder = builder.setStart(new Date(startMillis));
+
+        addMetric(builder, metricName, tags);
+
+        return appendTo(metricName, query(builder), into);
+    }
+
+    private static QueryMetric addMetric(QueryBuilder builder, String metricName,
+        List<Tag> tags) {
+
         QueryMetric queryMetric = builder.addMetric(metricName);
 
         for (Tag tag : tags) {
             queryMetric = queryMetric.addTag(tag.getName(), tag.getValue());
         }
+        return queryMetric;
+    }
+
+    private List<DataPoint> query(QueryBuilder builder) {
+        try {
+            return execute(builder);
+        } catch (UncheckedIOException e) {
+            LOGGER.error(e.getMessage());
+            return Collections.emptyList();
+        }
+    }
 
+    /**
+     * @throws UncheckedIOException if the query could not be sent or answered.
+     */
+    private List<DataPoint> execute(QueryBuilder builder) {
         QueryResponse response = null;
         try {
             response = httpClient.query(builder);
         } catch (URISyntaxException e) {
-            LOGGER.error("URI has wrong syntax: " + e.getMessage());
-            return new ArrayList<Double>();
+            throw new UncheckedIOException("URI has wrong syntax: " + e.getMessage(),
+                new IOException(e));
         } catch (IOException e) {
-            LOGGER.error("Something went wrong on querying: " + e.getMessage());
-            return new ArrayList<Double>();
+            throw new UncheckedIOException("Something went wrong on querying: " + e.getMessage(),
+                e);
         }
 
         List<Queries> queries = response.getQueries();
@@ -124,11 +494,32 @@ public class KairosDbConnection {
         }
         if (results.isEmpty()) {
             LOGGER.error("results empty");
+            return Collections.emptyList();
         }
 
-        List<Double> result = new ArrayList<Double>();
+        return results.get(0).getDataPoints();
+    }
+
+    private static DoubleSeries appendTo(String metricName, List<DataPoint> points,
+        DoubleSeries into) {
+        for (DataPoint point : points) {
+            final Object value = point.getValue();
+            if (value instanceof Number) {
+                into.add(point.getTimestamp(), ((Number) value).doubleValue());
+            } else {
+                LOGGER.error(
+                    "Value could not be transformed to value: " + metricName + "; on: " + point
+                        .toString());
+            }
+        }
+        return into;
+    }
 
-        for (DataPoint point : results.get(0).getDataPoints()) {
+    private static List<Double> toValues(String metricName, List<DataPoint> points) {
+
+        List<Double> result = new ArrayList<Double>(points.size());
+
+        for (DataPoint point : points) {
             try {
                 result.add(point.doubleValue());
             } catch (DataFormatException e) {
@@ -144,4 +535,38 @@ public class KairosDbConnection {
 
         return result;
     }
+
+    /**
+     * The number of points of a push which were sent, spooled for a later replay or lost.
+     */
+    static final class PushResult {
+
+        private final int sent;
+        private final int spooled;
+        private final int lost;
+
+        private PushResult(int sent, int spooled, int lost) {
+            this.sent = sent;
+            this.spooled = spooled;
+            this.lost = lost;
+        }
+
+        int getSent() {
+            return sent;
+        }
+
+        int getSpooled() {
+            return spooled;
+        }
+
+        int getLost() {
+            return lost;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        pushClient.close();
+        httpClient.close();
+    }
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Builder for a {@link KairosDbConnection} with a pooled, keep-alive http client.
+ */
+public class KairosDbConnectionBuilder {
+
+    static final int DEFAULT_MAX_CONNECTIONS = 20;
+    static final long DEFAULT_KEEP_ALIVE_MILLIS = 30000;
+    static final int DEFAULT_MAX_PAYLOAD_BYTES = 1024 * 1024;
+
+    private String ip;
+    private Integer port;
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private long keepAliveMillis = DEFAULT_KEEP_ALIVE_MILLIS;
+    private int timeoutMillis = 0;
+    @Nullable
+    private MetricSpool spool;
+    private boolean compression = false;
+    private int maxPayloadBytes = DEFAULT_MAX_PAYLOAD_BYTES;
+
+    public KairosDbConnectionBuilder ip(String ip) {
+        this.ip = ip;
+        return this;
+    }
+
+    public KairosDbConnectionBuilder port(Integer port) {
+        this.port = port;
+        return this;
+    }
+
+    public KairosDbConnectionBuilder maxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public KairosDbConnectionBuilder keepAliveMillis(long keepAliveMillis) {
+        this.keepAliveMillis = keepAliveMillis;
+        return this;
+    }
+
+    /**
+     * Bounds connecting and every read of a response of queries and pushes, 0 waits forever.
+     */
+    public KairosDbConnectionBuilder timeoutMillis(int timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * Spools points which could not be pushed. The spool is not closed by the connection.
+     */
+    public KairosDbConnectionBuilder spool(@Nullable MetricSpool spool) {
+        this.spool = spool;
+        return this;
+    }
+
+    /**
+     * Sends pushed data points gzip compressed.
+     */
+    public KairosDbConnectionBuilder compression(boolean compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * Splits pushes whose json payload exceeds the given size into several requests.
+     */
+    public KairosDbConnectionBuilder maxPayloadBytes(int maxPayloadBytes) {
+        this.maxPayloadBytes = maxPayloadBytes;
+        return this;
+    }
+
+    public KairosDbConnection createKairosDbConnection() {
+        checkNotNull(ip, "ip is null");
+        checkNotNull(port, "port is null");
+        checkArgument(maxConnections > 0, "maxConnections must be positive");
+        checkArgument(keepAliveMillis >= 0, "keepAliveMillis must not be negative");
+        checkArgument(timeoutMillis >= 0, "timeoutMillis must not be negative");
+        checkArgument(maxPayloadBytes > 0, "maxPayloadBytes must be positive");
+        return new KairosDbConnection(ip, port, maxConnections, keepAliveMillis, timeoutMillis,
+            spool, compression, maxPayloadBytes);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Feeds the raw metrics of a {@link StreamingMonitorEngine} from KairosDB.
+ * <p>
+ * Every poll only fetches the points newer than the last timestamp seen per metric and source,
+ * the first poll starts at the given lookback. The points are read into reused series, one per
+ * metric and source.
+ * <p>
+ * Ordering: the points of one poll are pushed to the engine merged by timestamp over all
+ * metrics and sources, so windows aggregating several sources see them in order. Points of a
+ * later poll may still be older than points already pushed, e.g. if one source reports late;
+ * the windows count such points with the newest timestamp they saw, see {@link
+ * SlidingWindow}. Use a single feed for all sources of an engine, several feeds pushing to one
+ * engine are not merged. As with {@link MetricCursor}, points arriving late with an older
+ * timestamp than the last one seen of their series are not picked up.
+ */
+public class KairosDbMonitorFeed {
+
+    private final KairosDbConnection connection;
+    private final StreamingMonitorEngine engine;
+    private final long lookbackMillis;
+
+    private final List<String> metrics;
+    private final int sourceCount;
+    // one entry per metric and source, metric major
+    private final String[] sources;
+    private final List<List<Tag>> tags;
+    private final long[] lastTimestamps;
+    private final DoubleSeries[] points;
+    private final int[] positions;
+
+    /**
+     * @param source the source the points are pushed for, e.g. the virtual machine the tags
+     *               select.
+     */
+    public KairosDbMonitorFeed(KairosDbConnection connection, StreamingMonitorEngine engine,
+        String source, List<Tag> tags, long lookbackMillis) {
+        this(connection, engine, ImmutableMap.of(source, tags), lookbackMillis);
+    }
+
+    /**
+     * @param sources the tags selecting the points of each source, e.g. of each virtual machine.
+     */
+    public KairosDbMonitorFeed(KairosDbConnection connection, StreamingMonitorEngine engine,
+        Map<String, List<Tag>> sources, long lookbackMillis) {
+        checkNotNull(connection);
+        checkNotNull(engine);
+        checkNotNull(sources);
+        checkArgument(!sources.isEmpty(), "At least one source required");
+        checkArgument(lookbackMillis > 0, "lookbackMillis must be positive");
+        this.connection = connection;
+        this.engine = engine;
+        this.lookbackMillis = lookbackMillis;
+        this.metrics = new ArrayList<>(engine.getMetrics());
+
+        this.sourceCount = sources.size();
+        final int series = metrics.size() * sourceCount;
+        this.sources = new String[series];
+        this.tags = new ArrayList<>(series);
+        for (int i = 0; i < metrics.size(); i++) {
+            int j = 0;
+            for (Map.Entry<String, List<Tag>> source : sources.entrySet()) {
+                this.sources[i * sourceCount + j++] = checkNotNull(source.getKey());
+                this.tags.add(checkNotNull(source.getValue()));
+            }
+        }
+        this.lastTimestamps = new long[series];
+        this.points = new DoubleSeries[series];
+        for (int i = 0; i < series; i++) {
+            this.points[i] = new DoubleSeries();
+        }
+        this.positions = new int[series];
+    }
+
+    /**
+     * Fetches the points arrived since the last poll for all raw metrics of the engine and all
+     * sources and pushes them, oldest first.
+     *
+     * @return the number of points pushed.
+     */
+    public synchronized int poll() {
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < points.length; i++) {
+            final long start =
+                lastTimestamps[i] == 0 ? now - lookbackMillis : lastTimestamps[i] + 1;
+            points[i].clear();
+            positions[i] = 0;
+            connection.appendSeries(metric(i), tags.get(i), start, points[i]);
+            if (!points[i].isEmpty()) {
+                lastTimestamps[i] = points[i].lastTimestamp();
+            }
+        }
+        return merge();
+    }
+
+    /**
+     * Pushes the fetched points in timestamp order. The number of series is small, the oldest
+     * head is found by a linear scan.
+     */
+    private int merge() {
+        int pushed = 0;
+        while (true) {
+            int oldest = -1;
+            for (int i = 0; i < points.length; i++) {
+                if (positions[i] < points[i].size() && (oldest < 0
+                    || points[i].timestamp(positions[i]) < points[oldest]
+                    .timestamp(positions[oldest]))) {
+                    oldest = i;
+                }
+            }
+            if (oldest < 0) {
+                return pushed;
+            }
+            final int position = positions[oldest]++;
+            engine.push(metric(oldest), sources[oldest],
+                points[oldest].timestamp(position), points[oldest].value(position));
+            pushed++;
+        }
+    }
+
+    private String metric(int series) {
+        return metrics.get(series / sourceCount);
+    }
+}
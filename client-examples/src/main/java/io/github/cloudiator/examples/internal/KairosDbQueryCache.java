@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Size bounded cache with a time to live in front of the queries of a {@link
+ * KairosDbConnection}.
+ * <p>
+ * Queries are keyed on metric, tags (independent of their order), window and aggregation.
+ * Concurrent requests for a missing key wait for a single query to KairosDB, so every key is
+ * queried at most once per time to live. A failed query yields an empty result, which is not
+ * cached: the next request queries again.
+ */
+public class KairosDbQueryCache {
+
+    private static final Logger LOGGER = LogManager.getLogger(KairosDbQueryCache.class);
+
+    private final KairosDbConnection connection;
+    private final LoadingCache<QueryKey, List<Double>> cache;
+
+    public KairosDbQueryCache(KairosDbConnection connection, long ttl, TimeUnit ttlUnit,
+        long maximumSize) {
+        checkNotNull(connection);
+        checkArgument(ttl > 0, "ttl must be positive");
+        checkArgument(maximumSize > 0, "maximumSize must be positive");
+        this.connection = connection;
+        this.cache = CacheBuilder.newBuilder().expireAfterWrite(ttl, ttlUnit)
+            .maximumSize(maximumSize).recordStats()
+            .build(new CacheLoader<QueryKey, List<Double>>() {
+                @Override
+                public List<Double> load(QueryKey key) {
+                    return ImmutableList.copyOf(key.execute(connection));
+                }
+            });
+    }
+
+    /**
+     * @see KairosDbConnection#getAggregatedValue(String, List, int)
+     */
+    public List<Double> getAggregatedValue(String metricName, List<Tag> tags, int time) {
+        return get(new QueryKey(metricName, tags, time, null, 0));
+    }
+
+    /**
+     * @see KairosDbConnection#getAggregatedValue(String, List, int, Aggregation, int)
+     */
+    public List<Double> getAggregatedValue(String metricName, List<Tag> tags, int time,
+        Aggregation aggregation, int samplingSeconds) {
+        checkNotNull(aggregation);
+        return get(new QueryKey(metricName, tags, time, aggregation, samplingSeconds));
+    }
+
+    private List<Double> get(QueryKey key) {
+        try {
+            return cache.getUnchecked(key);
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                LOGGER.error(e.getCause().getMessage());
+                return Collections.emptyList();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public long getHits() {
+        return cache.stats().hitCount();
+    }
+
+    public long getMisses() {
+        return cache.stats().missCount();
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+
+    private static class QueryKey {
+
+        private final SeriesKey series;
+        private final int time;
+        @Nullable
+        private final Aggregation aggregation;
+        private final int samplingSeconds;
+
+        private QueryKey(String metricName, List<Tag> tags, int time,
+            @Nullable Aggregation aggregation, int samplingSeconds) {
+            this.series = SeriesKey.of(metricName, tags);
+            this.time = time;
+            this.aggregation = aggregation;
+            this.samplingSeconds = samplingSeconds;
+        }
+
+        private List<Double> execute(KairosDbConnection connection) {
+            return connection
+                .loadAggregatedValue(series.getMetricName(), series.getTags(), time, aggregation,
+                    samplingSeconds);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+
+            QueryKey that = (QueryKey) o;
+
+            return time == that.time && samplingSeconds == that.samplingSeconds && series
+                .equals(that.series) && Objects.equals(aggregation, that.aggregation);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(series, time, aggregation, samplingSeconds);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import com.google.common.base.Optional;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Incrementally polls a metric and keeps the points of a sliding window locally.
+ * <p>
+ * The first poll fetches the complete window, every further poll only fetches the points
+ * newer than the last timestamp seen. Points arriving in KairosDB with a timestamp older than
+ * the last seen one are therefore not picked up.
+ */
+public class MetricCursor {
+
+    private final KairosDbConnection connection;
+    private final String metricName;
+    private final List<Tag> tags;
+    private final long windowMillis;
+
+    private final DoubleSeries window = new DoubleSeries();
+
+    public MetricCursor(KairosDbConnection connection, String metricName, List<Tag> tags,
+        int windowSeconds) {
+        checkNotNull(connection);
+        checkNotNull(metricName);
+        checkNotNull(tags);
+        checkArgument(windowSeconds > 0, "windowSeconds must be positive");
+        this.connection = connection;
+        this.metricName = metricName;
+        this.tags = tags;
+        this.windowMillis = windowSeconds * 1000L;
+    }
+
+    /**
+     * Fetches the points arrived since the last poll and drops the points which left the
+     * window.
+     *
+     * @return the number of new points.
+     */
+    public synchronized int poll() {
+        final long now = System.currentTimeMillis();
+        final long lastTimestamp = window.lastTimestamp();
+        final long start =
+            lastTimestamp == Long.MIN_VALUE ? now - windowMillis : lastTimestamp + 1;
+
+        final int before = window.size();
+        connection.appendSeries(metricName, tags, start, window);
+        final int added = window.size() - before;
+
+        window.removeBefore(now - windowMillis);
+        return added;
+    }
+
+    /**
+     * @return the values within the window, oldest first.
+     */
+    public synchronized double[] values() {
+        return window.toValueArray();
+    }
+
+    public synchronized Optional<Double> max() {
+        if (window.isEmpty()) {
+            return Optional.absent();
+        }
+        return Optional.of(window.max());
+    }
+
+    public synchronized int size() {
+        return window.size();
+    }
+}
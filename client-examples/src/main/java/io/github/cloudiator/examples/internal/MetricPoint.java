@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A single data point of a metric series.
+ */
+public class MetricPoint {
+
+    private final SeriesKey series;
+    private final double value;
+    private final long timeStamp;
+
+    public MetricPoint(String metricName, List<Tag> tags, double value, long timeStamp) {
+        this(SeriesKey.of(metricName, tags), value, timeStamp);
+    }
+
+    public MetricPoint(SeriesKey series, double value, long timeStamp) {
+        checkNotNull(series);
+        this.series = series;
+        this.value = value;
+        this.timeStamp = timeStamp;
+    }
+
+    public SeriesKey getSeries() {
+        return series;
+    }
+
+    public String getMetricName() {
+        return series.getMetricName();
+    }
+
+    public List<Tag> getTags() {
+        return series.getTags();
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    /**
+     * @return the tags as map, two points with the same tags in different order yield equal maps.
+     */
+    public Map<String, String> tagMap() {
+        return series.getTagMap();
+    }
+}
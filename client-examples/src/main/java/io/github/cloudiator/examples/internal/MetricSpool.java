@@ -0,0 +1,441 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Durable spool for metric batches which could not be pushed.
+ * <p>
+ * Batches are appended to memory mapped segment files of a fixed size within a directory. A
+ * record consists of its length followed by the encoded points; replayed records are marked
+ * by negating their length, so a restarted spool continues where the last replay stopped.
+ * Segments are rotated when full and deleted once replayed. If more than {@code maxSegments}
+ * segments exist, the oldest segment is discarded, bounding the disk usage to {@code
+ * maxSegments * segmentSize} bytes.
+ */
+public class MetricSpool implements Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger(MetricSpool.class);
+
+    private static final String PREFIX = "metrics-";
+    private static final String SUFFIX = ".spool";
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final AtomicBoolean replaying = new AtomicBoolean(false);
+    private boolean closed = false;
+
+    private final AtomicLong spooledBatches = new AtomicLong();
+    private final AtomicLong discardedBatches = new AtomicLong();
+    private final AtomicLong replayedBatches = new AtomicLong();
+    private final AtomicLong replayedPoints = new AtomicLong();
+    private final AtomicLong replayNanos = new AtomicLong();
+
+    public MetricSpool(File directory, int segmentSize, int maxSegments) throws IOException {
+        checkNotNull(directory);
+        checkArgument(segmentSize > 8, "segmentSize too small");
+        checkArgument(maxSegments > 0, "maxSegments must be positive");
+        checkArgument(directory.isDirectory() || directory.mkdirs(),
+            "Could not create spool directory " + directory.getAbsolutePath());
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name
+            .endsWith(SUFFIX));
+        checkState(files != null, "Could not list " + directory.getAbsolutePath());
+        Arrays.sort(files);
+        for (File file : files) {
+            final String name = file.getName();
+            long sequence =
+                Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+            segments.addLast(Segment.open(file, sequence, segmentSize));
+        }
+        if (segments.isEmpty()) {
+            segments.addLast(newSegment(0));
+        }
+    }
+
+    private Segment newSegment(long sequence) throws IOException {
+        File file = new File(directory, String.format("%s%020d%s", PREFIX, sequence, SUFFIX));
+        return Segment.open(file, sequence, segmentSize);
+    }
+
+    /**
+     * Appends the points as one batch.
+     *
+     * @return false if the batch could not be stored.
+     */
+    public synchronized boolean append(Collection<MetricPoint> points) {
+        checkState(!closed, "spool is closed");
+        final byte[] record;
+        try {
+            record = encode(points);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        if (record.length + Integer.BYTES > segmentSize - Integer.BYTES) {
+            LOGGER.error("Batch of " + points.size() + " points exceeds the spool segment size.");
+            return false;
+        }
+        try {
+            Segment current = segments.peekLast();
+            if (!current.fits(record.length)) {
+                current = newSegment(current.sequence + 1);
+                segments.addLast(current);
+                while (segments.size() > maxSegments) {
+                    Segment oldest = segments.removeFirst();
+                    discardedBatches.addAndGet(oldest.pending());
+                    oldest.delete();
+                    LOGGER.warn("Spool full, discarded segment " + oldest.file.getName());
+                }
+            }
+            current.append(record);
+            spooledBatches.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            LOGGER.error("Could not spool metrics to " + directory.getAbsolutePath(), e);
+            return false;
+        }
+    }
+
+    public synchronized boolean hasPending() {
+        for (Segment segment : segments) {
+            if (segment.pending() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replays the spooled batches in the order they were appended. Stops at the first batch the
+     * sink does not fully accept. A batch the sink rejected as a whole is retried on the next
+     * replay; of a partly accepted batch only the rejected points are spooled again, as a new
+     * batch at the end of the spool. Concurrent calls return immediately.
+     *
+     * @param sink receives the batches, returns the points it could not deliver.
+     * @return the number of replayed batches.
+     */
+    public int replay(Function<List<MetricPoint>, List<MetricPoint>> sink) {
+        if (!replaying.compareAndSet(false, true)) {
+            return 0;
+        }
+        try {
+            int replayed = 0;
+            while (true) {
+                final Pending pending;
+                synchronized (this) {
+                    if (closed) {
+                        return replayed;
+                    }
+                    pending = nextPending();
+                }
+                if (pending == null) {
+                    return replayed;
+                }
+                final long start = System.nanoTime();
+                final List<MetricPoint> rejected = sink.apply(pending.points);
+                final int accepted = pending.points.size() - rejected.size();
+                if (accepted == 0) {
+                    return replayed;
+                }
+                replayNanos.addAndGet(System.nanoTime() - start);
+                replayedPoints.addAndGet(accepted);
+                if (!rejected.isEmpty()) {
+                    synchronized (this) {
+                        // replaying the whole batch again would duplicate the accepted points
+                        if (!closed && append(rejected)) {
+                            commit(pending);
+                        }
+                    }
+                    return replayed;
+                }
+                synchronized (this) {
+                    commit(pending);
+                }
+                replayed++;
+                replayedBatches.incrementAndGet();
+            }
+        } finally {
+            replaying.set(false);
+        }
+    }
+
+    private Pending nextPending() {
+        for (Segment segment : segments) {
+            if (segment.pending() > 0) {
+                return new Pending(segment, segment.readPosition, decode(segment.peek()));
+            }
+        }
+        return null;
+    }
+
+    private void commit(Pending pending) {
+        // the segment may have been discarded by append while the batch was replayed
+        if (!segments.contains(pending.segment)
+            || pending.segment.readPosition != pending.position) {
+            return;
+        }
+        pending.segment.commit();
+        while (segments.size() > 1 && segments.peekFirst().pending() == 0) {
+            try {
+                segments.removeFirst().delete();
+            } catch (IOException e) {
+                LOGGER.warn("Could not close replayed spool segment.", e);
+            }
+        }
+    }
+
+    /**
+     * @return the number of batches written to the spool.
+     */
+    public long getSpooledBatches() {
+        return spooledBatches.get();
+    }
+
+    /**
+     * @return the number of not replayed batches lost because the spool was full.
+     */
+    public long getDiscardedBatches() {
+        return discardedBatches.get();
+    }
+
+    public long getReplayedBatches() {
+        return replayedBatches.get();
+    }
+
+    public long getReplayedPoints() {
+        return replayedPoints.get();
+    }
+
+    /**
+     * @return the replayed points per second spent in the sink.
+     */
+    public double getReplayThroughput() {
+        final long nanos = replayNanos.get();
+        return nanos == 0 ? 0 : replayedPoints.get() * 1e9 / nanos;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        for (Segment segment : segments) {
+            segment.close();
+        }
+    }
+
+    private static byte[] encode(Collection<MetricPoint> points) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(points.size() * 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(points.size());
+        for (MetricPoint point : points) {
+            out.writeShort(point.getSeries().metricNameBytes().length);
+            out.write(point.getSeries().metricNameBytes());
+            out.writeShort(point.getTags().size());
+            for (Tag tag : point.getTags()) {
+                writeString(out, tag.getName());
+                writeString(out, tag.getValue());
+            }
+            out.writeLong(point.getTimeStamp());
+            out.writeDouble(point.getValue());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        checkArgument(bytes.length <= 0xFFFF, "String too long for the spool: " + string);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static List<MetricPoint> decode(ByteBuffer record) {
+        final int count = record.getInt();
+        List<MetricPoint> points = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final String metricName = readString(record);
+            final int tagCount = record.getShort();
+            List<Tag> tags = new ArrayList<>(tagCount);
+            for (int j = 0; j < tagCount; j++) {
+                tags.add(new Tag(readString(record), readString(record)));
+            }
+            final long timeStamp = record.getLong();
+            final double value = record.getDouble();
+            points.add(new MetricPoint(metricName, tags, value, timeStamp));
+        }
+        return points;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final int length = buffer.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    private static class Pending {
+        private final Segment segment;
+        private final int position;
+        private final List<MetricPoint> points;
+
+        private Pending(Segment segment, int position, List<MetricPoint> points) {
+            this.segment = segment;
+            this.position = position;
+            this.points = points;
+        }
+    }
+
+
+    private static class Segment {
+
+        private final File file;
+        private final long sequence;
+        private final RandomAccessFile randomAccessFile;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+        private int readPosition;
+        private int pending;
+
+        private Segment(File file, long sequence, RandomAccessFile randomAccessFile,
+            MappedByteBuffer buffer) {
+            this.file = file;
+            this.sequence = sequence;
+            this.randomAccessFile = randomAccessFile;
+            this.buffer = buffer;
+        }
+
+        static Segment open(File file, long sequence, int size) throws IOException {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            final long length = Math.max(size, randomAccessFile.length());
+            MappedByteBuffer buffer =
+                randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            Segment segment = new Segment(file, sequence, randomAccessFile, buffer);
+            segment.recover();
+            return segment;
+        }
+
+        /**
+         * Scans the records to find the first pending one and the end of the segment.
+         */
+        private void recover() {
+            int position = 0;
+            readPosition = -1;
+            try {
+                while (position + Integer.BYTES <= buffer.limit()) {
+                    final int length = buffer.getInt(position);
+                    if (length == 0) {
+                        break;
+                    }
+                    if (length > 0) {
+                        if (readPosition < 0) {
+                            readPosition = position;
+                        }
+                        pending++;
+                    }
+                    position += Integer.BYTES + Math.abs(length);
+                }
+            } catch (IndexOutOfBoundsException e) {
+                LOGGER.warn("Truncated spool segment " + file.getName());
+            }
+            writePosition = position;
+            if (readPosition < 0) {
+                readPosition = writePosition;
+            }
+        }
+
+        boolean fits(int recordLength) {
+            // keep room for the terminating zero length
+            return writePosition + 2 * Integer.BYTES + recordLength <= buffer.limit();
+        }
+
+        void append(byte[] record) {
+            buffer.position(writePosition + Integer.BYTES);
+            buffer.put(record);
+            // write the length last, a crash before leaves the record invisible
+            buffer.putInt(writePosition, record.length);
+            writePosition += Integer.BYTES + record.length;
+            pending++;
+        }
+
+        int pending() {
+            return pending;
+        }
+
+        ByteBuffer peek() {
+            final int length = buffer.getInt(readPosition);
+            ByteBuffer record = buffer.duplicate();
+            record.position(readPosition + Integer.BYTES);
+            record.limit(readPosition + Integer.BYTES + length);
+            return record;
+        }
+
+        void commit() {
+            final int length = buffer.getInt(readPosition);
+            buffer.putInt(readPosition, -length);
+            pending--;
+            readPosition += Integer.BYTES + length;
+            while (readPosition < writePosition && buffer.getInt(readPosition) < 0) {
+                readPosition += Integer.BYTES - buffer.getInt(readPosition);
+            }
+        }
+
+        void close() throws IOException {
+            buffer.force();
+            randomAccessFile.close();
+        }
+
+        void delete() throws IOException {
+            randomAccessFile.close();
+            if (!file.delete()) {
+                LOGGER.warn("Could not delete spool segment " + file.getAbsolutePath());
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A recorded sequence of metric samples of several sources, ordered by timestamp.
+ * <p>
+ * Samples are stored column wise in primitive arrays, metric and source names are interned as
+ * indexes. A trace is read either from csv lines {@code timestamp,metric,source,value} or from
+ * the compact binary format written by {@link #write(File)}, which stores a sample in 18 bytes.
+ * Immutable.
+ */
+public class MetricTrace {
+
+    private static final int MAGIC = 0x4d545231;
+
+    private final List<String> metrics;
+    private final List<String> sources;
+    private final short[] metricIndexes;
+    private final int[] sourceIndexes;
+    private final long[] timestamps;
+    private final double[] values;
+
+    MetricTrace(List<String> metrics, List<String> sources, short[] metricIndexes,
+        int[] sourceIndexes, long[] timestamps, double[] values) {
+        this.metrics = Collections.unmodifiableList(metrics);
+        this.sources = Collections.unmodifiableList(sources);
+        this.metricIndexes = metricIndexes;
+        this.sourceIndexes = sourceIndexes;
+        this.timestamps = timestamps;
+        this.values = values;
+    }
+
+    /**
+     * Reads a binary trace or, if the file does not start with the binary header, a csv trace.
+     * Empty lines, lines starting with {@code #} and a header line are skipped.
+     */
+    public static MetricTrace read(File file) throws IOException {
+        checkNotNull(file);
+        try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(file)))) {
+            in.mark(4);
+            if (file.length() >= 4 && in.readInt() == MAGIC) {
+                return readBinary(in);
+            }
+            in.reset();
+            return readCsv(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)),
+                file);
+        }
+    }
+
+    private static MetricTrace readBinary(DataInputStream in) throws IOException {
+        final MetricTraceBuilder builder = new MetricTraceBuilder();
+        final String[] metrics = new String[in.readInt()];
+        for (int i = 0; i < metrics.length; i++) {
+            metrics[i] = in.readUTF();
+        }
+        final String[] sources = new String[in.readInt()];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = in.readUTF();
+        }
+        final int size = in.readInt();
+        long timestamp = in.readLong();
+        for (int i = 0; i < size; i++) {
+            final int metric = in.readUnsignedShort();
+            final int source = in.readInt();
+            timestamp += in.readInt();
+            builder.add(metrics[metric], sources[source], timestamp, in.readDouble());
+        }
+        return builder.createMetricTrace();
+    }
+
+    private static MetricTrace readCsv(BufferedReader reader, File file) throws IOException {
+        final MetricTraceBuilder builder = new MetricTraceBuilder();
+        String line;
+        int number = 0;
+        while ((line = reader.readLine()) != null) {
+            number++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final String[] fields = line.split(",");
+            checkArgument(fields.length == 4,
+                "Expected timestamp,metric,source,value in " + file + ":" + number);
+            final long timestamp;
+            try {
+                timestamp = Long.parseLong(fields[0].trim());
+            } catch (NumberFormatException e) {
+                if (number == 1) {
+                    // header
+                    continue;
+                }
+                throw new IllegalArgumentException("Illegal timestamp in " + file + ":" + number,
+                    e);
+            }
+            builder.add(fields[1].trim(), fields[2].trim(), timestamp,
+                Double.parseDouble(fields[3].trim()));
+        }
+        return builder.createMetricTrace();
+    }
+
+    /**
+     * Writes the trace in the binary format.
+     */
+    public void write(File file) throws IOException {
+        checkNotNull(file);
+        try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(metrics.size());
+            for (String metric : metrics) {
+                out.writeUTF(metric);
+            }
+            out.writeInt(sources.size());
+            for (String source : sources) {
+                out.writeUTF(source);
+            }
+            out.writeInt(size());
+            long previous = isEmpty() ? 0 : timestamps[0];
+            out.writeLong(previous);
+            for (int i = 0; i < size(); i++) {
+                final long delta = timestamps[i] - previous;
+                checkArgument(delta <= Integer.MAX_VALUE, "Gap in trace too large at " + i);
+                out.writeShort(metricIndexes[i]);
+                out.writeInt(sourceIndexes[i]);
+                out.writeInt((int) delta);
+                out.writeDouble(values[i]);
+                previous = timestamps[i];
+            }
+        }
+    }
+
+    public int size() {
+        return timestamps.length;
+    }
+
+    public boolean isEmpty() {
+        return timestamps.length == 0;
+    }
+
+    public List<String> getMetrics() {
+        return metrics;
+    }
+
+    public List<String> getSources() {
+        return sources;
+    }
+
+    /**
+     * @return the index of the sample's metric in {@link #getMetrics()}.
+     */
+    public int metric(int index) {
+        checkElementIndex(index, size());
+        return metricIndexes[index] & 0xffff;
+    }
+
+    /**
+     * @return the index of the sample's source in {@link #getSources()}.
+     */
+    public int source(int index) {
+        checkElementIndex(index, size());
+        return sourceIndexes[index];
+    }
+
+    public long timestamp(int index) {
+        checkElementIndex(index, size());
+        return timestamps[index];
+    }
+
+    public double value(int index) {
+        checkElementIndex(index, size());
+        return values[index];
+    }
+
+    @Override
+    public String toString() {
+        final long millis = isEmpty() ? 0 : timestamps[size() - 1] - timestamps[0];
+        return "MetricTrace{size=" + size() + ", metrics=" + metrics + ", sources=" + sources
+            .size() + ", millis=" + millis + "}";
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Builder for a {@link MetricTrace}, e.g. from synthetic samples. Samples may be added in any
+ * order, they are sorted by timestamp on creation.
+ */
+public class MetricTraceBuilder {
+
+    private final List<String> metrics = new ArrayList<>();
+    private final Map<String, Integer> metricIndexes = new HashMap<>();
+    private final List<String> sources = new ArrayList<>();
+    private final Map<String, Integer> sourceIndexes = new HashMap<>();
+
+    private short[] metricColumn = new short[1024];
+    private int[] sourceColumn = new int[1024];
+    private long[] timestamps = new long[1024];
+    private double[] values = new double[1024];
+    private int size;
+
+    public MetricTraceBuilder add(String metric, String source, long timestamp, double value) {
+        checkNotNull(metric);
+        checkNotNull(source);
+        if (size == timestamps.length) {
+            final int capacity = size * 2;
+            metricColumn = Arrays.copyOf(metricColumn, capacity);
+            sourceColumn = Arrays.copyOf(sourceColumn, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        final int metricIndex = index(metrics, metricIndexes, metric);
+        checkArgument(metricIndex <= 0xffff, "Too many metrics");
+        metricColumn[size] = (short) metricIndex;
+        sourceColumn[size] = index(sources, sourceIndexes, source);
+        timestamps[size] = timestamp;
+        values[size] = value;
+        size++;
+        return this;
+    }
+
+    public MetricTrace createMetricTrace() {
+        if (isSorted()) {
+            return new MetricTrace(new ArrayList<>(metrics), new ArrayList<>(sources),
+                Arrays.copyOf(metricColumn, size), Arrays.copyOf(sourceColumn, size),
+                Arrays.copyOf(timestamps, size), Arrays.copyOf(values, size));
+        }
+        final Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        // stable, samples with equal timestamps keep their order
+        Arrays.sort(order, Comparator.comparingLong(i -> timestamps[i]));
+        final short[] sortedMetrics = new short[size];
+        final int[] sortedSources = new int[size];
+        final long[] sortedTimestamps = new long[size];
+        final double[] sortedValues = new double[size];
+        for (int i = 0; i < size; i++) {
+            sortedMetrics[i] = metricColumn[order[i]];
+            sortedSources[i] = sourceColumn[order[i]];
+            sortedTimestamps[i] = timestamps[order[i]];
+            sortedValues[i] = values[order[i]];
+        }
+        return new MetricTrace(new ArrayList<>(metrics), new ArrayList<>(sources), sortedMetrics,
+            sortedSources, sortedTimestamps, sortedValues);
+    }
+
+    private boolean isSorted() {
+        for (int i = 1; i < size; i++) {
+            if (timestamps[i] < timestamps[i - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int index(List<String> names, Map<String, Integer> indexes, String name) {
+        return indexes.computeIfAbsent(name, key -> {
+            names.add(key);
+            return names.size() - 1;
+        });
+    }
+}
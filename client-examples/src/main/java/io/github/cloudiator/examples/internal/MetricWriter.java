@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import java.io.Closeable;
+import java.util.List;
+
+/**
+ * Writes single data points of a metric, possibly buffered.
+ */
+public interface MetricWriter extends Closeable {
+
+    void write(String metricName, List<Tag> tags, double value);
+
+    void write(String metricName, List<Tag> tags, double value, long timeStamp);
+
+    /**
+     * Writes a point of a series whose key was built before, avoiding to rebuild it.
+     */
+    void write(SeriesKey series, double value, long timeStamp);
+
+    /**
+     * Sends all data points buffered so far.
+     */
+    void flush();
+}
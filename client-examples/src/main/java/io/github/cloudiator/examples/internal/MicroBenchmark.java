@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.function.DoubleSupplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Minimal harness measuring the latency and the allocation of an operation on the calling
+ * thread.
+ * <p>
+ * The operation is warmed up for as many rounds as it is measured, so the JIT compiled it
+ * before the measurement. The latency is the best round, the allocation the mean over all
+ * measured rounds, read from the thread allocation counter of the HotSpot JVM. The results of
+ * the operation are consumed, so it cannot be eliminated as dead code. Far less rigorous than
+ * JMH, but enough to compare two implementations run by the same harness.
+ */
+public class MicroBenchmark {
+
+    private final int rounds;
+    private final int operationsPerRound;
+    // consumes the results of the operations
+    private volatile double sink;
+
+    public MicroBenchmark(int rounds, int operationsPerRound) {
+        checkArgument(rounds > 0, "rounds must be positive");
+        checkArgument(operationsPerRound > 0, "operationsPerRound must be positive");
+        this.rounds = rounds;
+        this.operationsPerRound = operationsPerRound;
+    }
+
+    public Result measure(String name, DoubleSupplier operation) {
+        checkNotNull(name);
+        checkNotNull(operation);
+        for (int i = 0; i < rounds; i++) {
+            round(operation);
+        }
+        long bestNanos = Long.MAX_VALUE;
+        final long allocatedBefore = allocatedBytes();
+        for (int i = 0; i < rounds; i++) {
+            bestNanos = Math.min(bestNanos, round(operation));
+        }
+        final long allocatedAfter = allocatedBytes();
+        final double operations = (double) rounds * operationsPerRound;
+        return new Result(name, bestNanos / (double) operationsPerRound,
+            allocatedBefore < 0 ? Double.NaN : (allocatedAfter - allocatedBefore) / operations);
+    }
+
+    private long round(DoubleSupplier operation) {
+        double result = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < operationsPerRound; i++) {
+            result += operation.getAsDouble();
+        }
+        final long nanos = System.nanoTime() - start;
+        sink = result;
+        return nanos;
+    }
+
+    /**
+     * @return the bytes allocated by the current thread so far, -1 if not supported.
+     */
+    private static long allocatedBytes() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        return ((com.sun.management.ThreadMXBean) threads)
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+
+    public static class Result {
+
+        private final String name;
+        private final double nanosPerOperation;
+        private final double bytesPerOperation;
+
+        private Result(String name, double nanosPerOperation, double bytesPerOperation) {
+            this.name = name;
+            this.nanosPerOperation = nanosPerOperation;
+            this.bytesPerOperation = bytesPerOperation;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getNanosPerOperation() {
+            return nanosPerOperation;
+        }
+
+        /**
+         * @return the allocated bytes per operation, NaN if the JVM does not report them.
+         */
+        public double getBytesPerOperation() {
+            return bytesPerOperation;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-32s %12.1f ns/op %12.1f bytes/op", name, nanosPerOperation,
+                bytesPerOperation);
+        }
+    }
+}
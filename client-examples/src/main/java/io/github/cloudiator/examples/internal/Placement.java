@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Where virtual machines are started: a cloud, one of its locations and its hardware.
+ */
+public class Placement {
+
+    private final ConfigurationLoader.CloudConfiguration cloud;
+    private final String locationId;
+
+    public Placement(ConfigurationLoader.CloudConfiguration cloud, String locationId) {
+        checkNotNull(cloud);
+        checkNotNull(locationId);
+        checkArgument(cloud.getLocationIds().contains(locationId),
+            "Unknown location " + locationId + " of cloud " + cloud.getName());
+        this.cloud = cloud;
+        this.locationId = locationId;
+    }
+
+    public ConfigurationLoader.CloudConfiguration getCloud() {
+        return cloud;
+    }
+
+    public String getLocationId() {
+        return locationId;
+    }
+
+    public String getHardwareId() {
+        return cloud.getHardwareId();
+    }
+
+    /**
+     * @return identifies the placement across runs.
+     */
+    public String getKey() {
+        return cloud.getName() + "/" + locationId + "/" + getHardwareId();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        return getKey().equals(((Placement) o).getKey());
+    }
+
+    @Override
+    public int hashCode() {
+        return getKey().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return getKey();
+    }
+}
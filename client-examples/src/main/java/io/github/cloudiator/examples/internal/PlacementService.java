@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Chooses placements by their observed provisioning latency and failure rate.
+ * <p>
+ * For every placement the service keeps an exponentially weighted moving average of the
+ * latency, the 95th percentile of the recent latencies and a moving failure rate. A placement
+ * scores its expected latency, half average and half percentile, divided by its success rate
+ * and multiplied by the number of its pending provisionings plus one. Placements which never
+ * succeeded are assumed to take as long as a provisioning timeout. Placements never tried score
+ * best, so that every placement is tried. To spread load the service does not always pick the
+ * best placement, but the better of two chosen at random (power of two choices).
+ * <p>
+ * Every choice counts as pending until it is {@link #record(Placement, long, boolean)
+ * recorded} or {@link #release(Placement) released}. Latencies are only known once a
+ * provisioning finished, so the choices made at the start of a deployment, e.g. while building
+ * its topology or in its first placement steps, are scored by the latencies of earlier runs;
+ * within the deployment they are only spread by their pending counts.
+ * <p>
+ * If loaded from a file, the statistics are written back after every observation, so they
+ * survive restarts.
+ */
+public class PlacementService {
+
+    private static final Logger LOGGER = LogManager.getLogger(PlacementService.class);
+
+    static final String VERSION = "1";
+    private static final String VERSION_KEY = "_version";
+
+    static final double ALPHA = 0.3;
+    static final int LATENCY_SAMPLES = 32;
+    private static final double MIN_SUCCESS_RATE = 0.05;
+    // the assumed latency of placements which never succeeded, e.g. a provisioning timeout
+    static final long FAILED_LATENCY_MILLIS = 30 * 60 * 1000L;
+
+    @Nullable
+    private final File file;
+    private final Map<String, Statistics> statistics;
+    private final Map<String, Integer> pending = new HashMap<>();
+    private final Random random = new Random();
+
+    /**
+     * Creates a service keeping its statistics in memory only.
+     */
+    public PlacementService() {
+        this(null, new HashMap<>());
+    }
+
+    private PlacementService(@Nullable File file, Map<String, Statistics> statistics) {
+        this.file = file;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Loads the statistics, an absent file or a file of another version results in empty
+     * statistics.
+     */
+    public static PlacementService load(File file) throws IOException {
+        checkNotNull(file);
+        final Map<String, Statistics> statistics = new HashMap<>();
+        if (file.isFile()) {
+            final Properties properties = new Properties();
+            try (InputStream inputStream = new FileInputStream(file)) {
+                properties.load(inputStream);
+            }
+            if (VERSION.equals(properties.getProperty(VERSION_KEY))) {
+                for (String name : properties.stringPropertyNames()) {
+                    if (!name.equals(VERSION_KEY)) {
+                        try {
+                            statistics.put(name, Statistics.parse(properties.getProperty(name)));
+                        } catch (IllegalArgumentException e) {
+                            LOGGER.warn("Ignoring placement statistics of " + name, e);
+                        }
+                    }
+                }
+            } else {
+                LOGGER.info("Ignoring placement statistics " + file + " of other version.");
+            }
+        }
+        return new PlacementService(file, statistics);
+    }
+
+    /**
+     * Chooses a placement among all locations of the clouds.
+     */
+    public synchronized Placement choose(
+        Collection<ConfigurationLoader.CloudConfiguration> clouds) {
+        checkNotNull(clouds);
+        final List<Placement> candidates = new ArrayList<>();
+        for (ConfigurationLoader.CloudConfiguration cloud : clouds) {
+            for (String locationId : cloud.getLocationIds()) {
+                candidates.add(new Placement(cloud, locationId));
+            }
+        }
+        checkArgument(!candidates.isEmpty(), "No locations to choose from.");
+
+        final int first = random.nextInt(candidates.size());
+        Placement chosen = candidates.get(first);
+        if (candidates.size() > 1) {
+            int second = random.nextInt(candidates.size() - 1);
+            if (second >= first) {
+                second++;
+            }
+            if (score(candidates.get(second)) < score(chosen)) {
+                chosen = candidates.get(second);
+            }
+        }
+        pending.merge(chosen.getKey(), 1, Integer::sum);
+        LOGGER.debug("Chose placement " + chosen + " with score " + score(chosen));
+        return chosen;
+    }
+
+    /**
+     * Chooses one of the locations of the cloud.
+     */
+    public Placement choose(ConfigurationLoader.CloudConfiguration cloud) {
+        checkNotNull(cloud);
+        return choose(Collections.singleton(cloud));
+    }
+
+    /**
+     * Records a provisioning, e.g. from the creation of a virtual machine until its instance
+     * started. Failures only count towards the failure rate.
+     */
+    public synchronized void record(Placement placement, long millis, boolean success) {
+        checkNotNull(placement);
+        checkArgument(millis >= 0, "millis must not be negative");
+        pending.computeIfPresent(placement.getKey(),
+            (key, count) -> count > 1 ? count - 1 : null);
+        statistics.computeIfAbsent(placement.getKey(), key -> new Statistics())
+            .record(millis, success);
+        if (file != null) {
+            save(file);
+        }
+    }
+
+    /**
+     * Ends a pending choice without an observation, e.g. if the provisioning is not tracked.
+     */
+    public synchronized void release(Placement placement) {
+        checkNotNull(placement);
+        pending.computeIfPresent(placement.getKey(),
+            (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * @return the score of the placement, lower is better.
+     */
+    public synchronized double score(Placement placement) {
+        final Statistics placementStatistics = statistics.get(placement.getKey());
+        if (placementStatistics == null || placementStatistics.count == 0) {
+            return 0;
+        }
+        final double latency = placementStatistics.samples == 0 ?
+            FAILED_LATENCY_MILLIS :
+            (placementStatistics.averageMillis + placementStatistics.percentile(0.95)) / 2;
+        final double successRate =
+            Math.max(MIN_SUCCESS_RATE, 1 - placementStatistics.failureRate);
+        return latency / successRate * (1 + pending.getOrDefault(placement.getKey(), 0));
+    }
+
+    /**
+     * @return one line per known placement with its average and 95th percentile latency and
+     * failure rate.
+     */
+    public synchronized String getReport() {
+        final StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, Statistics> entry : new TreeMap<>(statistics).entrySet()) {
+            final Statistics placementStatistics = entry.getValue();
+            report.append(entry.getKey()).append(": count=").append(placementStatistics.count)
+                .append(String.format(" avg=%.0fms p95=%dms failures=%.2f",
+                    placementStatistics.averageMillis, placementStatistics.percentile(0.95),
+                    placementStatistics.failureRate)).append('\n');
+        }
+        return report.toString();
+    }
+
+    /**
+     * Writes the statistics, failures are logged as the statistics only improve placements.
+     */
+    private void save(File file) {
+        final Properties properties = new Properties();
+        properties.setProperty(VERSION_KEY, VERSION);
+        for (Map.Entry<String, Statistics> entry : statistics.entrySet()) {
+            properties.setProperty(entry.getKey(), entry.getValue().format());
+        }
+        try {
+            final File temp = new File(file.getAbsoluteFile().getParentFile(),
+                file.getName() + ".tmp");
+            try (OutputStream outputStream = new FileOutputStream(temp)) {
+                properties.store(outputStream, "cloudiator examples placement statistics");
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Could not write placement statistics " + file, e);
+        }
+    }
+
+
+    /**
+     * The observations of a single placement.
+     */
+    private static class Statistics {
+
+        private long count;
+        private double averageMillis;
+        private double failureRate;
+        // ring of the latest successful latencies
+        private final long[] latencies = new long[LATENCY_SAMPLES];
+        private int samples;
+        private int next;
+
+        private void record(long millis, boolean success) {
+            count++;
+            failureRate = count == 1 ?
+                (success ? 0 : 1) :
+                ALPHA * (success ? 0 : 1) + (1 - ALPHA) * failureRate;
+            if (success) {
+                averageMillis =
+                    samples == 0 ? millis : ALPHA * millis + (1 - ALPHA) * averageMillis;
+                latencies[next] = millis;
+                next = (next + 1) % latencies.length;
+                samples = Math.min(samples + 1, latencies.length);
+            }
+        }
+
+        private long percentile(double percentile) {
+            if (samples == 0) {
+                return 0;
+            }
+            final long[] sorted = Arrays.copyOf(latencies, samples);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.min(samples - 1, Math.ceil(percentile * samples) - 1)];
+        }
+
+        /**
+         * @return count;average;failureRate;latencies oldest first.
+         */
+        private String format() {
+            final StringBuilder builder = new StringBuilder();
+            builder.append(count).append(';').append(averageMillis).append(';')
+                .append(failureRate).append(';');
+            for (int i = 0; i < samples; i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(latencies[(next - samples + i + latencies.length)
+                    % latencies.length]);
+            }
+            return builder.toString();
+        }
+
+        private static Statistics parse(String value) {
+            final String[] fields = value.split(";", -1);
+            checkArgument(fields.length == 4, "Expected four fields in " + value);
+            final Statistics statistics = new Statistics();
+            try {
+                statistics.count = Long.parseLong(fields[0]);
+                statistics.averageMillis = Double.parseDouble(fields[1]);
+                statistics.failureRate = Double.parseDouble(fields[2]);
+                if (!fields[3].isEmpty()) {
+                    for (String latency : fields[3].split(",")) {
+                        statistics.latencies[statistics.next] = Long.parseLong(latency);
+                        statistics.next = (statistics.next + 1) % LATENCY_SAMPLES;
+                        statistics.samples = Math.min(statistics.samples + 1, LATENCY_SAMPLES);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Illegal statistics " + value, e);
+            }
+            return statistics;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the push requests of a {@link KairosDbConnection}.
+ */
+public class PushStatistics {
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failedRequests = new AtomicLong();
+    private final AtomicLong points = new AtomicLong();
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+
+    void record(int points, long uncompressedBytes, long sentBytes, boolean success) {
+        this.requests.incrementAndGet();
+        if (!success) {
+            this.failedRequests.incrementAndGet();
+            return;
+        }
+        this.points.addAndGet(points);
+        this.uncompressedBytes.addAndGet(uncompressedBytes);
+        this.sentBytes.addAndGet(sentBytes);
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getFailedRequests() {
+        return failedRequests.get();
+    }
+
+    /**
+     * @return the number of points of successful requests.
+     */
+    public long getPoints() {
+        return points.get();
+    }
+
+    /**
+     * @return the size of the json payloads of successful requests before compression.
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes.get();
+    }
+
+    /**
+     * @return the size of the payloads of successful requests as sent.
+     */
+    public long getSentBytes() {
+        return sentBytes.get();
+    }
+
+    /**
+     * @return sent bytes divided by uncompressed bytes, 1 if nothing was sent yet.
+     */
+    public double getCompressionRatio() {
+        final long uncompressed = uncompressedBytes.get();
+        return uncompressed == 0 ? 1 : (double) sentBytes.get() / uncompressed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d requests (%d failed), %d points, %d bytes sent of %d bytes json",
+            getRequests(), getFailedRequests(), getPoints(), getSentBytes(),
+            getUncompressedBytes());
+    }
+}
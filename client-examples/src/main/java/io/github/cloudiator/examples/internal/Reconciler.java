@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import de.uniulm.omi.cloudiator.colosseum.client.Client;
+import de.uniulm.omi.cloudiator.colosseum.client.entities.internal.Entity;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Idempotent replacement for {@code updateOrCreate}.
+ * <p>
+ * Entities with a natural key, e.g. an api by its name, are looked up by their key and their
+ * json representation is fingerprinted and compared with the remote entity. Only entities which
+ * do not exist or differ are written; every decision is recorded in the plan. A second run
+ * with an unchanged configuration therefore only lists each entity type once and writes
+ * nothing for entities with a natural key, see the indexes of {@link EntityCache}.
+ * <p>
+ * Entities without a natural key, e.g. a constant monitor, are passed to {@code updateOrCreate}
+ * and recorded as such. Fields the desired entity leaves empty are not compared, they are
+ * usually filled by the server. A disabled reconciler passes every entity to {@code
+ * updateOrCreate}.
+ */
+public class Reconciler {
+
+    private static final Logger LOGGER = LogManager.getLogger(Reconciler.class);
+    private static final String[] IGNORED_FIELDS = {"id", "link"};
+
+    private final Client client;
+    private final EntityCache entityCache;
+    private final boolean enabled;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<Change> plan = new ArrayList<>();
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    public Reconciler(Client client, EntityCache entityCache, boolean enabled) {
+        checkNotNull(client);
+        checkNotNull(entityCache);
+        this.client = client;
+        this.entityCache = entityCache;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Writes an entity without a natural key, e.g. a constant monitor, via
+     * {@code updateOrCreate}. Only use this for entities without an {@link EntityCache.Index}:
+     * matching them by content would merge distinct entities with equal content. Concurrent
+     * calls with equal content are serialized, so that parallel deployment steps do not create
+     * duplicates.
+     */
+    public <T extends Entity> T reconcile(Class<T> type, T desired) {
+        checkNotNull(type);
+        checkNotNull(desired);
+        synchronized (lock(type, fingerprint(desired).toString())) {
+            return updateOrCreate(type, desired);
+        }
+    }
+
+    /**
+     * Reconciles an entity with a natural key, e.g. an api by its name. A remote entity with
+     * the same key but a different fingerprint is updated.
+     */
+    public <T extends Entity> T reconcile(EntityCache.Index<T> identity, T desired) {
+        checkNotNull(identity);
+        checkNotNull(desired);
+        final Class<T> type = identity.getType();
+        if (!enabled) {
+            return updateOrCreate(type, desired);
+        }
+        final String key = identity.keyOf(desired);
+        // serialized per key, a concurrent call finds the entity created by the first one
+        synchronized (lock(type, key)) {
+            return reconcile(identity, key, desired);
+        }
+    }
+
+    private <T extends Entity> T reconcile(EntityCache.Index<T> identity, String key,
+            T desired) {
+        final Class<T> type = identity.getType();
+        final Optional<T> existing = entityCache.get(identity, key);
+        if (!existing.isPresent()) {
+            return create(type, desired);
+        }
+        final ObjectNode fingerprint = fingerprint(desired);
+        if (matches(fingerprint, existing.get())) {
+            return record(Action.UNCHANGED, type, existing.get());
+        }
+        final T updated = merge(copy(existing.get()), fingerprint);
+        client.controller(type).update(updated);
+        entityCache.put(type, updated);
+        return record(Action.UPDATE, type, updated);
+    }
+
+    /**
+     * @return the decisions taken so far, in order.
+     */
+    public synchronized List<Change> getPlan() {
+        return ImmutableList.copyOf(plan);
+    }
+
+    /**
+     * @return the number of decisions by action.
+     */
+    public synchronized Map<Action, Integer> getSummary() {
+        final Map<Action, Integer> summary = new EnumMap<>(Action.class);
+        for (Action action : Action.values()) {
+            summary.put(action, 0);
+        }
+        for (Change change : plan) {
+            summary.put(change.getAction(), summary.get(change.getAction()) + 1);
+        }
+        return summary;
+    }
+
+    public void logPlan() {
+        for (Change change : getPlan()) {
+            if (change.getAction() != Action.UNCHANGED) {
+                LOGGER.info(change);
+            }
+        }
+        LOGGER.info("Reconciled entities: " + getSummary());
+    }
+
+    private Object lock(Class<?> type, String key) {
+        return locks.computeIfAbsent(type.getName() + "|" + key, ignored -> new Object());
+    }
+
+    private <T extends Entity> T updateOrCreate(Class<T> type, T desired) {
+        final T entity = client.controller(type).updateOrCreate(desired);
+        entityCache.put(type, entity);
+        return record(Action.UPDATE_OR_CREATE, type, entity);
+    }
+
+    private <T extends Entity> T create(Class<T> type, T desired) {
+        final T created = client.controller(type).create(desired);
+        entityCache.put(type, created);
+        return record(Action.CREATE, type, created);
+    }
+
+    private synchronized <T extends Entity> T record(Action action, Class<T> type, T entity) {
+        final Change change = new Change(action, type, entity.getId());
+        LOGGER.debug(change);
+        plan.add(change);
+        return entity;
+    }
+
+    private ObjectNode fingerprint(Entity entity) {
+        final ObjectNode node = objectMapper.valueToTree(entity);
+        node.remove(Arrays.asList(IGNORED_FIELDS));
+        final Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+        while (fields.hasNext()) {
+            if (fields.next().getValue().isNull()) {
+                fields.remove();
+            }
+        }
+        return node;
+    }
+
+    private boolean matches(ObjectNode fingerprint, Entity existing) {
+        final ObjectNode remote = objectMapper.valueToTree(existing);
+        final Iterator<Map.Entry<String, JsonNode>> fields = fingerprint.fields();
+        while (fields.hasNext()) {
+            final Map.Entry<String, JsonNode> field = fields.next();
+            if (!field.getValue().equals(remote.get(field.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Cached entities are shared, changes are applied to a copy.
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends Entity> T copy(T entity) {
+        try {
+            return (T) objectMapper
+                    .treeToValue(objectMapper.valueToTree(entity), entity.getClass());
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not copy " + entity, e);
+        }
+    }
+
+    private <T extends Entity> T merge(T existing, ObjectNode fingerprint) {
+        try {
+            return objectMapper.readerForUpdating(existing).readValue(fingerprint);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not merge changes into " + existing, e);
+        }
+    }
+
+    public enum Action {
+        CREATE, UPDATE, UNCHANGED,
+        /**
+         * Written without comparison, the entity has no natural key or the reconciler is
+         * disabled.
+         */
+        UPDATE_OR_CREATE
+    }
+
+
+    /**
+     * A decision of the reconciler.
+     */
+    public static class Change {
+
+        private final Action action;
+        private final Class<? extends Entity> type;
+        private final Long id;
+
+        private Change(Action action, Class<? extends Entity> type, Long id) {
+            this.action = action;
+            this.type = type;
+            this.id = id;
+        }
+
+        public Action getAction() {
+            return action;
+        }
+
+        public Class<? extends Entity> getType() {
+            return type;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return action + " " + type.getSimpleName() + " " + id;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import de.uniulm.omi.cloudiator.colosseum.client.entities.enums.FlowOperator;
+import de.uniulm.omi.cloudiator.colosseum.client.entities.enums.FormulaOperator;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The parameters of the horizontal scaling rules of a component.
+ * <p>
+ * The metric is averaged per instance over the average window. Every instance whose average is
+ * at or above the scale out threshold, or at or below the scale in threshold, is counted over
+ * the evaluation window, and at least one such instance triggers the scaling action. Shared by
+ * the monitors created in the mediawiki example and the offline {@link ScalingSimulator}.
+ */
+public class ScalingRules {
+
+    public static final ScalingRules DEFAULT = new ScalingRulesBuilder().createScalingRules();
+
+    private final String metric;
+    private final long scheduleSeconds;
+    private final long averageWindow;
+    private final TimeUnit averageWindowUnit;
+    private final long evaluationWindowSeconds;
+    private final double scaleOutThreshold;
+    private final double scaleInThreshold;
+    private final long amount;
+    private final long minInstances;
+    private final long maxInstances;
+
+    ScalingRules(String metric, long scheduleSeconds, long averageWindow,
+        TimeUnit averageWindowUnit, long evaluationWindowSeconds, double scaleOutThreshold,
+        double scaleInThreshold, long amount, long minInstances, long maxInstances) {
+        this.metric = metric;
+        this.scheduleSeconds = scheduleSeconds;
+        this.averageWindow = averageWindow;
+        this.averageWindowUnit = averageWindowUnit;
+        this.evaluationWindowSeconds = evaluationWindowSeconds;
+        this.scaleOutThreshold = scaleOutThreshold;
+        this.scaleInThreshold = scaleInThreshold;
+        this.amount = amount;
+        this.minInstances = minInstances;
+        this.maxInstances = maxInstances;
+    }
+
+    public String getMetric() {
+        return metric;
+    }
+
+    public long getScheduleSeconds() {
+        return scheduleSeconds;
+    }
+
+    /**
+     * @return the length of the average window in {@link #getAverageWindowUnit()}, as used for
+     * the time window of the monitor.
+     */
+    public long getAverageWindow() {
+        return averageWindow;
+    }
+
+    public TimeUnit getAverageWindowUnit() {
+        return averageWindowUnit;
+    }
+
+    public long getAverageWindowSeconds() {
+        return averageWindowUnit.toSeconds(averageWindow);
+    }
+
+    public long getEvaluationWindowSeconds() {
+        return evaluationWindowSeconds;
+    }
+
+    public double getScaleOutThreshold() {
+        return scaleOutThreshold;
+    }
+
+    public double getScaleInThreshold() {
+        return scaleInThreshold;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public long getMinInstances() {
+        return minInstances;
+    }
+
+    public long getMaxInstances() {
+        return maxInstances;
+    }
+
+    /**
+     * Builds the monitors of the rules in the engine.
+     */
+    public Graph compile(StreamingMonitorEngine engine) {
+        final StreamingMonitorEngine.Node average = engine
+            .composed(FlowOperator.MAP, FormulaOperator.AVG,
+                averageWindowUnit.toMillis(averageWindow), engine.raw(metric));
+        return new Graph(count(engine, average, FormulaOperator.GTE, scaleOutThreshold),
+            count(engine, average, FormulaOperator.LTE, scaleInThreshold));
+    }
+
+    private StreamingMonitorEngine.Node count(StreamingMonitorEngine engine,
+        StreamingMonitorEngine.Node average, FormulaOperator comparison, double threshold) {
+        final long windowMillis = evaluationWindowSeconds * 1000;
+        final StreamingMonitorEngine.Node violated = engine
+            .composed(FlowOperator.MAP, comparison, windowMillis, average,
+                engine.constant(threshold));
+        return engine.composed(FlowOperator.REDUCE, FormulaOperator.SUM, windowMillis, violated);
+    }
+
+    @Override
+    public String toString() {
+        return "out>=" + scaleOutThreshold + " in<=" + scaleInThreshold + " instances=["
+            + minInstances + "," + maxInstances + "] amount=" + amount + " avg="
+            + getAverageWindowSeconds() + "s";
+    }
+
+
+    /**
+     * The monitors counting the instances violating the scale out and scale in thresholds.
+     */
+    public static class Graph {
+
+        private final StreamingMonitorEngine.Node scaleOut;
+        private final StreamingMonitorEngine.Node scaleIn;
+
+        private Graph(StreamingMonitorEngine.Node scaleOut, StreamingMonitorEngine.Node scaleIn) {
+            this.scaleOut = scaleOut;
+            this.scaleIn = scaleIn;
+        }
+
+        public StreamingMonitorEngine.Node getScaleOut() {
+            return scaleOut;
+        }
+
+        public StreamingMonitorEngine.Node getScaleIn() {
+            return scaleIn;
+        }
+    }
+}
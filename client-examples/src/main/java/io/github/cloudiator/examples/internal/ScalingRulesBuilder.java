@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Builder for {@link ScalingRules}, defaults to the rules of the mediawiki example.
+ */
+public class ScalingRulesBuilder {
+
+    static final String DEFAULT_METRIC = "wikiCpuUsage";
+    static final long DEFAULT_SCHEDULE_SECONDS = 10;
+    static final long DEFAULT_AVERAGE_WINDOW = 1;
+    static final TimeUnit DEFAULT_AVERAGE_WINDOW_UNIT = TimeUnit.MINUTES;
+    static final long DEFAULT_EVALUATION_WINDOW_SECONDS = 10;
+    static final double DEFAULT_SCALE_OUT_THRESHOLD = 70;
+    static final double DEFAULT_SCALE_IN_THRESHOLD = 10;
+    static final long DEFAULT_AMOUNT = 1;
+    static final long DEFAULT_MIN_INSTANCES = 1;
+    static final long DEFAULT_MAX_INSTANCES = 2;
+
+    private String metric = DEFAULT_METRIC;
+    private long scheduleSeconds = DEFAULT_SCHEDULE_SECONDS;
+    private long averageWindow = DEFAULT_AVERAGE_WINDOW;
+    private TimeUnit averageWindowUnit = DEFAULT_AVERAGE_WINDOW_UNIT;
+    private long evaluationWindowSeconds = DEFAULT_EVALUATION_WINDOW_SECONDS;
+    private double scaleOutThreshold = DEFAULT_SCALE_OUT_THRESHOLD;
+    private double scaleInThreshold = DEFAULT_SCALE_IN_THRESHOLD;
+    private long amount = DEFAULT_AMOUNT;
+    private long minInstances = DEFAULT_MIN_INSTANCES;
+    private long maxInstances = DEFAULT_MAX_INSTANCES;
+
+    /**
+     * The metric name of the sensor the rules are based on.
+     */
+    public ScalingRulesBuilder metric(String metric) {
+        this.metric = metric;
+        return this;
+    }
+
+    public ScalingRulesBuilder scheduleSeconds(long scheduleSeconds) {
+        this.scheduleSeconds = scheduleSeconds;
+        return this;
+    }
+
+    /**
+     * The window the metric is averaged over per instance, in the unit of the time window of
+     * the monitor, e.g. one minute.
+     */
+    public ScalingRulesBuilder averageWindow(long averageWindow, TimeUnit averageWindowUnit) {
+        this.averageWindow = averageWindow;
+        this.averageWindowUnit = averageWindowUnit;
+        return this;
+    }
+
+    public ScalingRulesBuilder averageWindowSeconds(long averageWindowSeconds) {
+        return averageWindow(averageWindowSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * The window the threshold violations of all instances are counted in.
+     */
+    public ScalingRulesBuilder evaluationWindowSeconds(long evaluationWindowSeconds) {
+        this.evaluationWindowSeconds = evaluationWindowSeconds;
+        return this;
+    }
+
+    public ScalingRulesBuilder scaleOutThreshold(double scaleOutThreshold) {
+        this.scaleOutThreshold = scaleOutThreshold;
+        return this;
+    }
+
+    public ScalingRulesBuilder scaleInThreshold(double scaleInThreshold) {
+        this.scaleInThreshold = scaleInThreshold;
+        return this;
+    }
+
+    public ScalingRulesBuilder amount(long amount) {
+        this.amount = amount;
+        return this;
+    }
+
+    public ScalingRulesBuilder minInstances(long minInstances) {
+        this.minInstances = minInstances;
+        return this;
+    }
+
+    public ScalingRulesBuilder maxInstances(long maxInstances) {
+        this.maxInstances = maxInstances;
+        return this;
+    }
+
+    public ScalingRules createScalingRules() {
+        checkNotNull(metric, "metric is null");
+        checkArgument(scheduleSeconds > 0, "scheduleSeconds must be positive");
+        checkNotNull(averageWindowUnit, "averageWindowUnit is null");
+        checkArgument(averageWindowUnit.toSeconds(averageWindow) > 0,
+            "averageWindow must be at least one second");
+        checkArgument(evaluationWindowSeconds > 0, "evaluationWindowSeconds must be positive");
+        checkArgument(scaleInThreshold < scaleOutThreshold,
+            "scaleInThreshold must be below scaleOutThreshold");
+        checkArgument(amount > 0, "amount must be positive");
+        checkArgument(minInstances > 0, "minInstances must be positive");
+        checkArgument(minInstances <= maxInstances, "minInstances must not exceed maxInstances");
+        return new ScalingRules(metric, scheduleSeconds, averageWindow, averageWindowUnit,
+            evaluationWindowSeconds, scaleOutThreshold, scaleInThreshold, amount, minInstances,
+            maxInstances);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Replays a {@link MetricTrace} through variants of {@link ScalingRules}, faster than real
+ * time.
+ * <p>
+ * Every variant is evaluated by its own {@link StreamingMonitorEngine} on the trace's time, the
+ * variants run in parallel on a fork-join pool. The recorded load of all sources of the trace
+ * is assumed to spread evenly over the simulated instances, so every sample is scaled by the
+ * number of recorded sources divided by the number of simulated instances. At the end of every
+ * schedule interval a triggered scale out, or else scale in, is applied within the instance
+ * bounds, and the interval counts as sla violation if a scaled sample exceeded the sla
+ * threshold.
+ */
+public class ScalingSimulator {
+
+    private final MetricTrace trace;
+    private final double slaThreshold;
+
+    public ScalingSimulator(MetricTrace trace, double slaThreshold) {
+        checkNotNull(trace);
+        checkArgument(!trace.isEmpty(), "trace is empty");
+        this.trace = trace;
+        this.slaThreshold = slaThreshold;
+    }
+
+    /**
+     * Simulates all variants in parallel.
+     *
+     * @return the results in the order of the variants.
+     */
+    public List<SimulationResult> simulate(List<ScalingRules> variants, ForkJoinPool pool) {
+        checkNotNull(variants);
+        checkNotNull(pool);
+        final List<ForkJoinTask<SimulationResult>> tasks = new ArrayList<>(variants.size());
+        for (ScalingRules variant : variants) {
+            tasks.add(pool.submit(() -> simulate(variant)));
+        }
+        final List<SimulationResult> results = new ArrayList<>(variants.size());
+        for (ForkJoinTask<SimulationResult> task : tasks) {
+            results.add(task.join());
+        }
+        return results;
+    }
+
+    public SimulationResult simulate(ScalingRules rules) {
+        checkNotNull(rules);
+        final int metric = trace.getMetrics().indexOf(rules.getMetric());
+        checkArgument(metric >= 0, "Trace has no samples of metric " + rules.getMetric());
+        return new Run(rules, metric).replay();
+    }
+
+
+    /**
+     * The replay state of a single variant.
+     */
+    private class Run {
+
+        private final ScalingRules rules;
+        private final int metric;
+        private final long scheduleMillis;
+        private final StreamingMonitorEngine engine = new StreamingMonitorEngine();
+        private final List<SimulationResult.ScalingEvent> events = new ArrayList<>();
+
+        private long instances;
+        private boolean scaleOut;
+        private boolean scaleIn;
+        private double maxLoad = Double.NEGATIVE_INFINITY;
+        private long ticks;
+        private long slaViolations;
+        private long instanceTicks;
+
+        private Run(ScalingRules rules, int metric) {
+            this.rules = rules;
+            this.metric = metric;
+            this.scheduleMillis = rules.getScheduleSeconds() * 1000;
+            this.instances = Math.max(rules.getMinInstances(),
+                Math.min(rules.getMaxInstances(), trace.getSources().size()));
+
+            final ScalingRules.Graph graph = rules.compile(engine);
+            engine.subscribe(graph.getScaleOut(), value -> value >= 1,
+                (source, timestamp, value) -> scaleOut = true);
+            engine.subscribe(graph.getScaleIn(), value -> value >= 1,
+                (source, timestamp, value) -> scaleIn = true);
+        }
+
+        private SimulationResult replay() {
+            final long start = System.currentTimeMillis();
+            final String metricName = rules.getMetric();
+            final List<String> sources = trace.getSources();
+            final double recorded = sources.size();
+
+            long tick = trace.timestamp(0) + scheduleMillis;
+            for (int i = 0; i < trace.size(); i++) {
+                final long timestamp = trace.timestamp(i);
+                while (timestamp >= tick) {
+                    tick(tick);
+                    tick += scheduleMillis;
+                }
+                if (trace.metric(i) != metric) {
+                    continue;
+                }
+                final double load = trace.value(i) * recorded / instances;
+                maxLoad = Math.max(maxLoad, load);
+                engine.push(metricName, sources.get(trace.source(i)), timestamp, load);
+            }
+            tick(tick);
+
+            return new SimulationResult(rules, events, ticks, slaViolations,
+                (double) instanceTicks / ticks, engine.getSamples(),
+                System.currentTimeMillis() - start);
+        }
+
+        private void tick(long timestamp) {
+            ticks++;
+            instanceTicks += instances;
+            if (maxLoad > slaThreshold) {
+                slaViolations++;
+            }
+            if (scaleOut && instances < rules.getMaxInstances()) {
+                instances = Math.min(rules.getMaxInstances(), instances + rules.getAmount());
+                events.add(new SimulationResult.ScalingEvent(timestamp, true, instances));
+            } else if (scaleIn && instances > rules.getMinInstances()) {
+                instances = Math.max(rules.getMinInstances(), instances - rules.getAmount());
+                events.add(new SimulationResult.ScalingEvent(timestamp, false, instances));
+            }
+            scaleOut = false;
+            scaleIn = false;
+            maxLoad = Double.NEGATIVE_INFINITY;
+        }
+    }
+}
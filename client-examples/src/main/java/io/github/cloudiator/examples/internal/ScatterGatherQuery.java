@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Fans a metric query out to the KairosDB endpoints of many virtual machines in parallel and
+ * merges the results.
+ * <p>
+ * Each endpoint has to answer within the timeout, counted from the start of its query, not
+ * from its submission: with more endpoints than threads, queued queries do not time out while
+ * they wait for a thread. Slow or failing endpoints are reported in the {@link Result} without
+ * failing the whole query. A query therefore takes about as long as the slowest endpoint, or
+ * several timeouts if the endpoints outnumber the threads. The http clients of the endpoints
+ * use the same timeout for connecting and reading, as cancelling a timed out query does not
+ * interrupt a blocked request.
+ */
+public class ScatterGatherQuery implements Closeable {
+
+    private final int port;
+    private final long timeout;
+    private final TimeUnit unit;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService timer;
+    private final Map<String, KairosDbConnection> endpoints = new ConcurrentHashMap<>();
+
+    /**
+     * @param timeout the time every endpoint has to answer, from the start of its query.
+     */
+    public ScatterGatherQuery(int port, int parallelism, long timeout, TimeUnit unit) {
+        checkArgument(parallelism > 0, "parallelism must be positive");
+        checkArgument(timeout > 0, "timeout must be positive");
+        checkNotNull(unit);
+        checkArgument(unit.toMillis(timeout) <= Integer.MAX_VALUE, "timeout too long");
+        this.port = port;
+        this.timeout = timeout;
+        this.unit = unit;
+        this.executor = Executors.newFixedThreadPool(parallelism,
+            new ThreadFactoryBuilder().setNameFormat("kairosdb-query-%d").setDaemon(true)
+                .build());
+        this.timer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("kairosdb-query-timeout-%d").setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Opens connections to new endpoints and closes the connections of endpoints not contained
+     * in the given ips.
+     */
+    public synchronized void retainEndpoints(Collection<String> ips) {
+        final Set<String> wanted = new HashSet<>(ips);
+        for (String ip : new HashSet<>(endpoints.keySet())) {
+            if (!wanted.contains(ip)) {
+                closeQuietly(endpoints.remove(ip));
+            }
+        }
+        for (String ip : wanted) {
+            if (!endpoints.containsKey(ip)) {
+                endpoints.put(ip, new KairosDbConnectionBuilder().ip(ip).port(port)
+                    .timeoutMillis((int) Math.max(1, unit.toMillis(timeout)))
+                    .createKairosDbConnection());
+            }
+        }
+    }
+
+    public Set<String> getEndpoints() {
+        return endpoints.keySet();
+    }
+
+    /**
+     * Aggregates the metric over the last {@code time} seconds on every endpoint.
+     */
+    public Result aggregate(final String metricName, final List<Tag> tags, final int time,
+        final Aggregation aggregation) {
+        return gather((ip, connection) -> {
+            final List<Double> values =
+                connection.getAggregatedValue(metricName, tags, time, aggregation, time);
+            double[] result = new double[values.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = values.get(i);
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Runs the query against every endpoint in parallel.
+     *
+     * @param query receives the ip and the connection of an endpoint, returns its values.
+     */
+    public Result gather(final BiFunction<String, KairosDbConnection, double[]> query) {
+        checkNotNull(query);
+        final Map<String, CompletableFuture<double[]>> futures = new LinkedHashMap<>();
+        final Map<String, Future<?>> tasks = new LinkedHashMap<>();
+        for (final Map.Entry<String, KairosDbConnection> endpoint : endpoints.entrySet()) {
+            final CompletableFuture<double[]> future = new CompletableFuture<>();
+            final AtomicReference<Future<?>> task = new AtomicReference<>();
+            task.set(executor.submit(() -> {
+                final ScheduledFuture<?> expiry = timer.schedule(() -> {
+                    if (future.completeExceptionally(new TimeoutException(
+                        endpoint.getKey() + " did not answer within " + timeout + " " + unit
+                            + "."))) {
+                        final Future<?> running = task.get();
+                        if (running != null) {
+                            running.cancel(true);
+                        }
+                    }
+                }, timeout, unit);
+                try {
+                    future.complete(query.apply(endpoint.getKey(), endpoint.getValue()));
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                } finally {
+                    expiry.cancel(false);
+                }
+            }));
+            futures.put(endpoint.getKey(), future);
+            tasks.put(endpoint.getKey(), task.get());
+        }
+
+        final ImmutableMap.Builder<String, double[]> values = ImmutableMap.builder();
+        final ImmutableMap.Builder<String, Throwable> failures = ImmutableMap.builder();
+        for (Map.Entry<String, CompletableFuture<double[]>> entry : futures.entrySet()) {
+            try {
+                values.put(entry.getKey(), entry.getValue().get());
+            } catch (ExecutionException e) {
+                failures.put(entry.getKey(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                tasks.get(entry.getKey()).cancel(true);
+                failures.put(entry.getKey(), e);
+            }
+        }
+        return new Result(values.build(), failures.build());
+    }
+
+    @Override
+    public synchronized void close() {
+        executor.shutdownNow();
+        timer.shutdownNow();
+        for (KairosDbConnection connection : endpoints.values()) {
+            closeQuietly(connection);
+        }
+        endpoints.clear();
+    }
+
+    private static void closeQuietly(KairosDbConnection connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            KairosDbConnection.LOGGER.warn("Could not close connection.", e);
+        }
+    }
+
+
+    /**
+     * The values of all answering endpoints and the failures of the others. The global
+     * statistics are computed over the values of all endpoints, e.g. the maximum of the per
+     * endpoint maxima or the unweighted average of the per endpoint averages.
+     * <p>
+     * Merging the values of the endpoints does not give global statistics of the underlying
+     * samples: a percentile over per endpoint aggregates, e.g. their averages, is not the
+     * percentile of all raw samples, and endpoints with few samples weigh as much as busy
+     * ones. Only the maximum and minimum of per endpoint maxima and minima are exact.
+     */
+    public static class Result {
+
+        private final Map<String, double[]> values;
+        private final Map<String, Throwable> failures;
+        private final double[] merged;
+
+        private Result(Map<String, double[]> values, Map<String, Throwable> failures) {
+            this.values = values;
+            this.failures = failures;
+            int size = 0;
+            for (double[] endpointValues : values.values()) {
+                size += endpointValues.length;
+            }
+            merged = new double[size];
+            int position = 0;
+            for (double[] endpointValues : values.values()) {
+                System.arraycopy(endpointValues, 0, merged, position, endpointValues.length);
+                position += endpointValues.length;
+            }
+            Arrays.sort(merged);
+        }
+
+        public Map<String, double[]> getValues() {
+            return values;
+        }
+
+        public Map<String, Throwable> getFailures() {
+            return failures;
+        }
+
+        public boolean isEmpty() {
+            return merged.length == 0;
+        }
+
+        public double max() {
+            checkState(!isEmpty(), "no values");
+            return merged[merged.length - 1];
+        }
+
+        public double min() {
+            checkState(!isEmpty(), "no values");
+            return merged[0];
+        }
+
+        public double avg() {
+            checkState(!isEmpty(), "no values");
+            double sum = 0;
+            for (double value : merged) {
+                sum += value;
+            }
+            return sum / merged.length;
+        }
+
+        /**
+         * @param percentile between 0 and 1, nearest rank over the merged values, not over the
+         *                   raw samples of the endpoints.
+         */
+        public double percentile(double percentile) {
+            checkState(!isEmpty(), "no values");
+            checkArgument(percentile > 0 && percentile <= 1, "percentile must be within (0,1]");
+            final int rank = (int) Math.ceil(percentile * merged.length);
+            return merged[Math.max(0, rank - 1)];
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Immutable, interned identity of a metric series: the metric name and its tags sorted by name.
+ * <p>
+ * Keys are created once per series via {@link #of(String, List)} and then reused by the
+ * writers, which take the precomputed hash, tag map and serialized tag fragment instead of
+ * rebuilding them for every data point. Repeated lookups of a series with the tags in the same
+ * order are answered from a probe table without sorting or encoding the tags again.
+ */
+public final class SeriesKey {
+
+    private static final Interner<SeriesKey> INTERNER = Interners.newWeakInterner();
+    private static final ConcurrentMap<Probe, SeriesKey> PROBES =
+        CacheBuilder.newBuilder().weakValues().<Probe, SeriesKey>build().asMap();
+
+    private final String metricName;
+    private final ImmutableSortedMap<String, String> tagMap;
+    private final ImmutableList<Tag> tags;
+    private final int hash;
+    private final byte[] metricNameBytes;
+    private final byte[] tagFragment;
+    private final boolean lineSafe;
+
+    private SeriesKey(String metricName, List<Tag> tags) {
+        this.metricName = metricName;
+        TreeMap<String, String> sorted = new TreeMap<>();
+        for (Tag tag : tags) {
+            sorted.put(tag.getName(), tag.getValue());
+        }
+        this.tagMap = ImmutableSortedMap.copyOfSorted(sorted);
+
+        ImmutableList.Builder<Tag> tagBuilder = ImmutableList.builder();
+        StringBuilder fragment = new StringBuilder();
+        for (Map.Entry<String, String> entry : tagMap.entrySet()) {
+            tagBuilder.add(new Tag(entry.getKey(), entry.getValue()));
+            fragment.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        this.tags = tagBuilder.build();
+        this.hash = 31 * metricName.hashCode() + tagMap.hashCode();
+        this.metricNameBytes = metricName.getBytes(StandardCharsets.UTF_8);
+        this.tagFragment = fragment.toString().getBytes(StandardCharsets.UTF_8);
+
+        boolean safe = isToken(metricName);
+        for (Map.Entry<String, String> entry : tagMap.entrySet()) {
+            safe &= isToken(entry.getKey()) && entry.getKey().indexOf('=') < 0 && isToken(
+                entry.getValue());
+        }
+        this.lineSafe = safe;
+    }
+
+    private static boolean isToken(@Nullable String string) {
+        if (string == null || string.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < string.length(); i++) {
+            if (Character.isWhitespace(string.charAt(i)) || Character
+                .isISOControl(string.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the canonical key of the series, tags with the same name are reduced to the last
+     * one.
+     */
+    public static SeriesKey of(String metricName, List<Tag> tags) {
+        checkNotNull(metricName);
+        checkNotNull(tags);
+        final SeriesKey known = PROBES.get(new Probe(metricName, tags));
+        if (known != null) {
+            return known;
+        }
+        final SeriesKey key = INTERNER.intern(new SeriesKey(metricName, tags));
+        // the probe must not keep the list of the caller, it may be modified later on
+        PROBES.putIfAbsent(new Probe(metricName, ImmutableList.copyOf(tags)), key);
+        return key;
+    }
+
+    public String getMetricName() {
+        return metricName;
+    }
+
+    /**
+     * @return the tags sorted by name.
+     */
+    public List<Tag> getTags() {
+        return tags;
+    }
+
+    public Map<String, String> getTagMap() {
+        return tagMap;
+    }
+
+    /**
+     * @return the utf-8 encoded metric name, do not modify.
+     */
+    byte[] metricNameBytes() {
+        return metricNameBytes;
+    }
+
+    /**
+     * @return the utf-8 encoded tags as {@code " name=value name=value"}, do not modify.
+     */
+    byte[] tagFragment() {
+        return tagFragment;
+    }
+
+    /**
+     * @return whether the name and the tags can be written to a line based protocol: none of
+     * them is empty or contains whitespace or control characters, and tag names contain no
+     * {@code '='}.
+     */
+    boolean isLineSafe() {
+        return lineSafe;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+
+        SeriesKey that = (SeriesKey) o;
+
+        return hash == that.hash && metricName.equals(that.metricName) && tagMap
+            .equals(that.tagMap);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return metricName + tagMap;
+    }
+
+    /**
+     * Lookup key of the probe table: the metric name and the tags as given by the caller.
+     */
+    private static final class Probe {
+
+        private final String metricName;
+        private final List<Tag> tags;
+        private final int hash;
+
+        private Probe(String metricName, List<Tag> tags) {
+            this.metricName = metricName;
+            this.tags = tags;
+            this.hash = 31 * metricName.hashCode() + tags.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+
+            Probe that = (Probe) o;
+
+            return hash == that.hash && metricName.equals(that.metricName) && tags
+                .equals(that.tags);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
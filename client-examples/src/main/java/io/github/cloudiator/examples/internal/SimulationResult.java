@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of replaying a {@link MetricTrace} through one variant of {@link ScalingRules}.
+ */
+public class SimulationResult {
+
+    private final ScalingRules rules;
+    private final List<ScalingEvent> events;
+    private final long ticks;
+    private final long slaViolations;
+    private final double averageInstances;
+    private final long samples;
+    private final long millis;
+
+    SimulationResult(ScalingRules rules, List<ScalingEvent> events, long ticks,
+        long slaViolations, double averageInstances, long samples, long millis) {
+        this.rules = rules;
+        this.events = Collections.unmodifiableList(events);
+        this.ticks = ticks;
+        this.slaViolations = slaViolations;
+        this.averageInstances = averageInstances;
+        this.samples = samples;
+        this.millis = millis;
+    }
+
+    public ScalingRules getRules() {
+        return rules;
+    }
+
+    /**
+     * @return the scale out and scale in actions, in the order they were triggered.
+     */
+    public List<ScalingEvent> getEvents() {
+        return events;
+    }
+
+    public long getScaleOuts() {
+        return events.stream().filter(ScalingEvent::isScaleOut).count();
+    }
+
+    public long getScaleIns() {
+        return events.size() - getScaleOuts();
+    }
+
+    /**
+     * @return the number of evaluated schedule intervals.
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * @return the number of schedule intervals in which the simulated load of an instance
+     * exceeded the sla threshold.
+     */
+    public long getSlaViolations() {
+        return slaViolations;
+    }
+
+    public double getAverageInstances() {
+        return averageInstances;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return the wall clock time the replay took.
+     */
+    public long getMillis() {
+        return millis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: out=%d in=%d slaViolations=%d/%d avgInstances=%.2f (%d samples"
+                + " in %d ms)", rules, getScaleOuts(), getScaleIns(), slaViolations, ticks,
+            averageInstances, samples, millis);
+    }
+
+
+    /**
+     * A triggered scaling action.
+     */
+    public static class ScalingEvent {
+
+        private final long timestamp;
+        private final boolean scaleOut;
+        private final long instances;
+
+        ScalingEvent(long timestamp, boolean scaleOut, long instances) {
+            this.timestamp = timestamp;
+            this.scaleOut = scaleOut;
+            this.instances = instances;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public boolean isScaleOut() {
+            return scaleOut;
+        }
+
+        /**
+         * @return the number of instances after the action.
+         */
+        public long getInstances() {
+            return instances;
+        }
+
+        @Override
+        public String toString() {
+            return (scaleOut ? "out" : "in") + "@" + timestamp + "->" + instances;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import de.uniulm.omi.cloudiator.colosseum.client.entities.enums.FormulaOperator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Aggregate of the samples within a sliding time window, updated in constant (amortized) time
+ * per sample.
+ * <p>
+ * Samples are kept in a primitive ring buffer which only grows while the window holds more
+ * samples than ever before, so a window of stable size does not allocate. Sums are maintained
+ * incrementally, maxima and minima by a monotonic queue of sample sequence numbers. Timestamps
+ * are expected in ascending order; a late sample, older than the newest one added, is counted
+ * as if it arrived with the newest timestamp and leaves the window with it. Not thread safe.
+ */
+public class SlidingWindow {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final FormulaOperator function;
+    private final long windowMillis;
+
+    private long[] timestamps;
+    private double[] values;
+    private int mask;
+    // sequence number of the oldest sample in the window and of the next sample
+    private long first;
+    private long next;
+    private double sum;
+    private long newest = Long.MIN_VALUE;
+
+    // monotonic queue of sequence numbers, only used for MAX and MIN
+    private long[] queue;
+    private long queueFirst;
+    private long queueNext;
+
+    public SlidingWindow(FormulaOperator function, long windowMillis) {
+        checkNotNull(function);
+        checkArgument(isSupported(function), "Unsupported window function " + function);
+        checkArgument(windowMillis > 0, "windowMillis must be positive");
+        this.function = function;
+        this.windowMillis = windowMillis;
+        this.timestamps = new long[DEFAULT_CAPACITY];
+        this.values = new double[DEFAULT_CAPACITY];
+        this.mask = DEFAULT_CAPACITY - 1;
+        this.queue = new long[DEFAULT_CAPACITY];
+    }
+
+    static boolean isSupported(FormulaOperator function) {
+        switch (function) {
+            case AVG:
+            case SUM:
+            case MAX:
+            case MIN:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Adds the sample and drops the samples which left the window ending at its timestamp.
+     */
+    public void add(long timestamp, double value) {
+        if (timestamp < newest) {
+            timestamp = newest;
+        }
+        newest = timestamp;
+        evict(timestamp - windowMillis);
+        if (next - first == values.length) {
+            grow();
+        }
+        final int position = (int) (next & mask);
+        timestamps[position] = timestamp;
+        values[position] = value;
+        sum += value;
+
+        if (function == FormulaOperator.MAX) {
+            while (queueNext > queueFirst && values[position(queueNext - 1)] <= value) {
+                queueNext--;
+            }
+            queue[(int) (queueNext++ & mask)] = next;
+        } else if (function == FormulaOperator.MIN) {
+            while (queueNext > queueFirst && values[position(queueNext - 1)] >= value) {
+                queueNext--;
+            }
+            queue[(int) (queueNext++ & mask)] = next;
+        }
+        next++;
+    }
+
+    /**
+     * Drops all samples with a timestamp at or before the given one.
+     */
+    public void evict(long timestamp) {
+        while (next > first && timestamps[(int) (first & mask)] <= timestamp) {
+            sum -= values[(int) (first & mask)];
+            if (queueNext > queueFirst && queue[(int) (queueFirst & mask)] == first) {
+                queueFirst++;
+            }
+            first++;
+        }
+        if (next == first) {
+            // avoid accumulating rounding errors over a long lifetime
+            sum = 0;
+        }
+    }
+
+    /**
+     * @return the aggregate of the samples in the window, NaN if it is empty.
+     */
+    public double value() {
+        if (next == first) {
+            return Double.NaN;
+        }
+        switch (function) {
+            case AVG:
+                return sum / (next - first);
+            case SUM:
+                return sum;
+            case MAX:
+            case MIN:
+                return values[position(queueFirst)];
+            default:
+                throw new AssertionError(function);
+        }
+    }
+
+    public int size() {
+        return (int) (next - first);
+    }
+
+    public FormulaOperator getFunction() {
+        return function;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * @return the position of the sample referenced by the queue entry.
+     */
+    private int position(long queueSequence) {
+        return (int) (queue[(int) (queueSequence & mask)] & mask);
+    }
+
+    private void grow() {
+        final int capacity = values.length * 2;
+        final int newMask = capacity - 1;
+        final long[] newTimestamps = new long[capacity];
+        final double[] newValues = new double[capacity];
+        for (long sequence = first; sequence < next; sequence++) {
+            newTimestamps[(int) (sequence & newMask)] = timestamps[(int) (sequence & mask)];
+            newValues[(int) (sequence & newMask)] = values[(int) (sequence & mask)];
+        }
+        final long[] newQueue = new long[capacity];
+        for (long sequence = queueFirst; sequence < queueNext; sequence++) {
+            newQueue[(int) (sequence & newMask)] = queue[(int) (sequence & mask)];
+        }
+        timestamps = newTimestamps;
+        values = newValues;
+        queue = newQueue;
+        mask = newMask;
+    }
+}
@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import de.uniulm.omi.cloudiator.colosseum.client.entities.enums.FlowOperator;
+import de.uniulm.omi.cloudiator.colosseum.client.entities.enums.FormulaOperator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoublePredicate;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * In-process evaluation of a monitor graph as built with the colosseum monitor entities, e.g.
+ * raw monitor, average over a window, comparison against a constant, sum over all sources.
+ * <p>
+ * The graph is built bottom-up, mirroring the raw, constant and composed monitor builders, and
+ * evaluated incrementally: every pushed sample updates the affected operators in constant
+ * (amortized) time, without allocating once all sources are known. Samples are fed either from
+ * KairosDB, see {@link KairosDbMonitorFeed}, or directly via {@link #push(String, String, long,
+ * double)}, e.g. from synthetic data.
+ * <p>
+ * Values are tracked per source, e.g. per virtual machine. {@link FlowOperator#MAP} operators
+ * keep one window per source, {@link FlowOperator#REDUCE} operators aggregate all sources into
+ * a single value reported for {@link #ALL_SOURCES}. Comparisons are evaluated per sample on the
+ * latest values of their two inputs and yield 1 or 0. Samples are expected in timestamp order
+ * over all metrics and sources, as a reducing window interleaves the samples of all sources;
+ * late samples are tolerated, see {@link SlidingWindow}. Not thread safe.
+ */
+public class StreamingMonitorEngine {
+
+    /**
+     * The source of the values of reducing operators.
+     */
+    public static final String ALL_SOURCES = "*";
+
+    private final Map<String, RawNode> raws = new HashMap<>();
+    private final Map<String, Integer> sources = new HashMap<>();
+    private String[] sourceNames = new String[16];
+    private int sourceCount;
+
+    private long samples;
+    private long evaluations;
+    private long nanos;
+
+    public StreamingMonitorEngine() {
+        source(ALL_SOURCES);
+    }
+
+    /**
+     * @return the node of the raw metric, created on first use.
+     */
+    public Node raw(String metric) {
+        checkNotNull(metric);
+        return raws.computeIfAbsent(metric, key -> new RawNode());
+    }
+
+    public Node constant(double value) {
+        return new ConstantNode(value);
+    }
+
+    /**
+     * Adds an operator equivalent to a composed monitor.
+     *
+     * @param flowOperator whether to aggregate per source or over all sources.
+     * @param function     AVG, SUM, MAX or MIN over the window, or GTE or LTE of exactly two
+     *                     inputs.
+     * @param windowMillis the length of the aggregation window, ignored by comparisons.
+     */
+    public Node composed(FlowOperator flowOperator, FormulaOperator function, long windowMillis,
+        Node... inputs) {
+        checkNotNull(flowOperator);
+        checkNotNull(function);
+        checkArgument(inputs.length > 0, "At least one input required");
+        for (Node input : inputs) {
+            checkNotNull(input);
+            checkArgument(input.engine() == this, "Input belongs to another engine");
+        }
+
+        final Node node;
+        if (function == FormulaOperator.GTE || function == FormulaOperator.LTE) {
+            checkArgument(flowOperator == FlowOperator.MAP,
+                "Comparisons are only supported with " + FlowOperator.MAP);
+            checkArgument(inputs.length == 2, "Comparisons require exactly two inputs");
+            node = new CompareNode(function == FormulaOperator.GTE, inputs[0], inputs[1]);
+        } else if (SlidingWindow.isSupported(function)) {
+            switch (flowOperator) {
+                case MAP:
+                    node = new MapNode(function, windowMillis);
+                    break;
+                case REDUCE:
+                    node = new ReduceNode(function, windowMillis);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported flow " + flowOperator);
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported function " + function);
+        }
+        for (Node input : inputs) {
+            input.children = append(input.children, node);
+        }
+        return node;
+    }
+
+    /**
+     * Calls the listener for every value of the node matching the filter, e.g. {@code value ->
+     * value >= 1} for a subscription with filter type GTE and value 1.
+     */
+    public void subscribe(Node node, DoublePredicate filter, Listener listener) {
+        checkNotNull(node);
+        checkNotNull(filter);
+        checkNotNull(listener);
+        checkArgument(node.engine() == this, "Node belongs to another engine");
+        node.filters = append(node.filters, filter);
+        node.listeners = append(node.listeners, listener);
+    }
+
+    /**
+     * Evaluates a sample of the raw metric. Samples of metrics without a raw node are ignored.
+     */
+    public void push(String metric, String source, long timestamp, double value) {
+        final RawNode raw = raws.get(metric);
+        if (raw == null) {
+            return;
+        }
+        final long start = System.nanoTime();
+        raw.accept(source(source), timestamp, value);
+        samples++;
+        nanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Evaluates all samples of the series, oldest first.
+     *
+     * @return the number of samples evaluated.
+     */
+    public int push(String metric, String source, DoubleSeries series) {
+        final RawNode raw = raws.get(metric);
+        if (raw == null) {
+            return 0;
+        }
+        final long start = System.nanoTime();
+        final int slot = source(source);
+        final int size = series.size();
+        for (int i = 0; i < size; i++) {
+            raw.accept(slot, series.timestamp(i), series.value(i));
+        }
+        samples += size;
+        nanos += System.nanoTime() - start;
+        return size;
+    }
+
+    public Set<String> getMetrics() {
+        return Collections.unmodifiableSet(raws.keySet());
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return the number of operator updates caused by the pushed samples.
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "samples=" + samples + ", evaluations=" + evaluations + ", nanosPerSample=" + (
+            samples == 0 ? 0 : nanos / samples);
+    }
+
+    private int source(String source) {
+        checkNotNull(source);
+        final Integer known = sources.get(source);
+        if (known != null) {
+            return known;
+        }
+        if (sourceCount == sourceNames.length) {
+            sourceNames = Arrays.copyOf(sourceNames, sourceCount * 2);
+        }
+        sourceNames[sourceCount] = source;
+        sources.put(source, sourceCount);
+        return sourceCount++;
+    }
+
+    private static <T> T[] append(T[] array, T element) {
+        final T[] appended = Arrays.copyOf(array, array.length + 1);
+        appended[array.length] = element;
+        return appended;
+    }
+
+
+    /**
+     * Receives the values of a node.
+     */
+    public interface Listener {
+
+        void onValue(String source, long timestamp, double value);
+    }
+
+
+    /**
+     * An operator of the graph.
+     */
+    public abstract class Node {
+
+        private Node[] children = new Node[0];
+        private DoublePredicate[] filters = new DoublePredicate[0];
+        private Listener[] listeners = new Listener[0];
+
+        private Node() {
+        }
+
+        /**
+         * @return the latest value of the node for the source, NaN if there is none yet.
+         */
+        public abstract double latest(String source);
+
+        abstract double latest(int source);
+
+        abstract void accept(int source, long timestamp, double value);
+
+        final void emit(int source, long timestamp, double value) {
+            evaluations++;
+            for (int i = 0; i < listeners.length; i++) {
+                if (filters[i].test(value)) {
+                    listeners[i].onValue(sourceNames[source], timestamp, value);
+                }
+            }
+            for (Node child : children) {
+                child.accept(source, timestamp, value);
+            }
+        }
+
+        private StreamingMonitorEngine engine() {
+            return StreamingMonitorEngine.this;
+        }
+    }
+
+
+    /**
+     * A node holding one value per source.
+     */
+    private abstract class PerSourceNode extends Node {
+
+        private double[] latest = new double[0];
+
+        @Override
+        public double latest(String source) {
+            final Integer slot = sources.get(source);
+            return slot == null ? Double.NaN : latest(slot);
+        }
+
+        @Override
+        final double latest(int source) {
+            return source < latest.length ? latest[source] : Double.NaN;
+        }
+
+        final void update(int source, long timestamp, double value) {
+            if (source >= latest.length) {
+                final int length = latest.length;
+                latest = Arrays.copyOf(latest, Math.max(sourceNames.length, source + 1));
+                Arrays.fill(latest, length, latest.length, Double.NaN);
+            }
+            latest[source] = value;
+            emit(source, timestamp, value);
+        }
+    }
+
+
+    private class RawNode extends PerSourceNode {
+
+        @Override
+        void accept(int source, long timestamp, double value) {
+            update(source, timestamp, value);
+        }
+    }
+
+
+    private class ConstantNode extends Node {
+
+        private final double value;
+
+        private ConstantNode(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public double latest(String source) {
+            return value;
+        }
+
+        @Override
+        double latest(int source) {
+            return value;
+        }
+
+        @Override
+        void accept(int source, long timestamp, double value) {
+            throw new AssertionError("Constants have no inputs");
+        }
+    }
+
+
+    private class MapNode extends PerSourceNode {
+
+        private final FormulaOperator function;
+        private final long windowMillis;
+        private SlidingWindow[] windows = new SlidingWindow[0];
+
+        private MapNode(FormulaOperator function, long windowMillis) {
+            this.function = function;
+            this.windowMillis = windowMillis;
+            // fail on an invalid window when building the graph, not on the first sample
+            new SlidingWindow(function, windowMillis);
+        }
+
+        @Override
+        void accept(int source, long timestamp, double value) {
+            if (source >= windows.length) {
+                windows = Arrays.copyOf(windows, Math.max(sourceNames.length, source + 1));
+            }
+            SlidingWindow window = windows[source];
+            if (window == null) {
+                window = new SlidingWindow(function, windowMillis);
+                windows[source] = window;
+            }
+            window.add(timestamp, value);
+            update(source, timestamp, window.value());
+        }
+    }
+
+
+    private class ReduceNode extends Node {
+
+        private final SlidingWindow window;
+        private double latest = Double.NaN;
+
+        private ReduceNode(FormulaOperator function, long windowMillis) {
+            this.window = new SlidingWindow(function, windowMillis);
+        }
+
+        @Override
+        public double latest(String source) {
+            return latest;
+        }
+
+        @Override
+        double latest(int source) {
+            return latest;
+        }
+
+        @Override
+        void accept(int source, long timestamp, double value) {
+            window.add(timestamp, value);
+            latest = window.value();
+            emit(0, timestamp, latest);
+        }
+    }
+
+
+    private class CompareNode extends PerSourceNode {
+
+        private final boolean greaterOrEqual;
+        private final Node left;
+        private final Node right;
+
+        private CompareNode(boolean greaterOrEqual, Node left, Node right) {
+            this.greaterOrEqual = greaterOrEqual;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        void accept(int source, long timestamp, double value) {
+            final double a = left.latest(source);
+            final double b = right.latest(source);
+            if (Double.isNaN(a) || Double.isNaN(b)) {
+                return;
+            }
+            final boolean result = greaterOrEqual ? a >= b : a <= b;
+            update(source, timestamp, result ? 1 : 0);
+        }
+    }
+}
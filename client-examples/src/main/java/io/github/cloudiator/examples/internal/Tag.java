@@ -1,5 +1,7 @@
 package io.github.cloudiator.examples.internal;
 
+import java.util.Objects;
+
 /**
  * Created by Frank on 24.11.2016.
  */
@@ -19,4 +21,27 @@ public class Tag {
         this.name = name;
         this.value = value;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+
+        Tag tag = (Tag) o;
+
+        return Objects.equals(name, tag.name) && Objects.equals(value, tag.value);
+    }
+
+    @Override
+    public int hashCode() {
+        // not Objects.hash, its varargs array would be allocated on every series lookup
+        return 31 * Objects.hashCode(name) + Objects.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return name + "=" + value;
+    }
 }
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import com.google.common.base.Optional;
+import de.uniulm.omi.cloudiator.colosseum.client.Client;
+import de.uniulm.omi.cloudiator.colosseum.client.entities.ApplicationInstance;
+import de.uniulm.omi.cloudiator.colosseum.client.entities.Instance;
+import de.uniulm.omi.cloudiator.colosseum.client.entities.TemplateOptions;
+import de.uniulm.omi.cloudiator.colosseum.client.entities.VirtualMachine;
+import de.uniulm.omi.cloudiator.colosseum.client.entities.internal.Entity;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import javax.ws.rs.NotFoundException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Deletes the entities of an application instance or of all virtual machines with a tag.
+ * <p>
+ * The entities are found with one list call per type. Every deletion is a step of a
+ * {@link DeploymentGraph} depending on the deletions of the entities referencing its entity,
+ * i.e. the reverse of the creation order: instances first, then their virtual machines, then
+ * the template options and the application instance. A step deletes its entity and waits until
+ * it is gone, failed deletions are retried with exponential backoff. The number of deletions
+ * running at the same time is bounded by the parallelism.
+ */
+public class TeardownEngine {
+
+    private static final Logger LOGGER = LogManager.getLogger(TeardownEngine.class);
+
+    static final int ATTEMPTS = 3;
+    static final long RETRY_BACKOFF_MILLIS = 1000;
+    static final long DELETE_TIMEOUT_MIN = 10;
+
+    private final Client client;
+    private final Waiter waiter;
+    private final int parallelism;
+    private final DeploymentGraph.Scheduling scheduling;
+
+    /**
+     * @param parallelism the maximum number of deletions running at the same time.
+     */
+    public TeardownEngine(Client client, Waiter waiter, int parallelism) {
+        this(client, waiter, parallelism, DeploymentGraph.Scheduling.WAVES);
+    }
+
+    public TeardownEngine(Client client, Waiter waiter, int parallelism,
+            DeploymentGraph.Scheduling scheduling) {
+        checkNotNull(client);
+        checkNotNull(waiter);
+        checkArgument(parallelism > 0, "parallelism must be positive");
+        checkNotNull(scheduling);
+        this.client = client;
+        this.waiter = waiter;
+        this.parallelism = parallelism;
+        this.scheduling = scheduling;
+    }
+
+    /**
+     * Deletes the application instance, its instances and their virtual machines, including the
+     * template options no other virtual machine uses.
+     *
+     * @return the deleted entities, see {@link Deployment#getReport()}.
+     * @throws IllegalStateException if a deletion failed finally, after all deletions not
+     *                               depending on it finished.
+     */
+    public Deployment tearDownApplicationInstance(long applicationInstanceId) {
+        final ApplicationInstance applicationInstance =
+                client.controller(ApplicationInstance.class).get(applicationInstanceId);
+        checkState(applicationInstance != null,
+                "Unknown application instance " + applicationInstanceId);
+        return tearDown("application instance " + applicationInstanceId,
+                instance -> applicationInstance.getId().equals(instance.getApplicationInstance()),
+                templateOptions -> false, applicationInstance);
+    }
+
+    /**
+     * Deletes the template options with the tag, all virtual machines started with them and
+     * their instances.
+     *
+     * @see #tearDownApplicationInstance(long)
+     */
+    public Deployment tearDownTagged(final String key, final String value) {
+        checkNotNull(key);
+        checkNotNull(value);
+        return tearDown("tag " + key + "=" + value, instance -> false, templateOptions -> {
+            final Map<String, String> tags = templateOptions.getTags();
+            return tags != null && value.equals(tags.get(key));
+        }, null);
+    }
+
+    private Deployment tearDown(String description, Predicate<Instance> selectedInstance,
+            Predicate<TemplateOptions> selectedTemplateOptions,
+            @Nullable ApplicationInstance applicationInstance) {
+        final List<Instance> allInstances = client.controller(Instance.class).getList();
+        final List<VirtualMachine> allVirtualMachines =
+                client.controller(VirtualMachine.class).getList();
+        final List<TemplateOptions> allTemplateOptions =
+                client.controller(TemplateOptions.class).getList();
+
+        // the virtual machines of the selected instances and template options, and all
+        // instances on these virtual machines
+        final Set<Long> templateOptionIds = new HashSet<>();
+        for (TemplateOptions templateOptions : allTemplateOptions) {
+            if (selectedTemplateOptions.test(templateOptions)) {
+                templateOptionIds.add(templateOptions.getId());
+            }
+        }
+        final Set<Long> virtualMachineIds = new HashSet<>();
+        for (Instance instance : allInstances) {
+            if (selectedInstance.test(instance)) {
+                virtualMachineIds.add(instance.getVirtualMachine());
+            }
+        }
+        for (VirtualMachine virtualMachine : allVirtualMachines) {
+            if (templateOptionIds.contains(virtualMachine.getTemplateOptions())) {
+                virtualMachineIds.add(virtualMachine.getId());
+            }
+        }
+        final List<Instance> instances = new ArrayList<>();
+        for (Instance instance : allInstances) {
+            if (selectedInstance.test(instance) || virtualMachineIds
+                    .contains(instance.getVirtualMachine())) {
+                instances.add(instance);
+            }
+        }
+        final List<VirtualMachine> virtualMachines = new ArrayList<>();
+        final Set<Long> sharedTemplateOptionIds = new HashSet<>();
+        for (VirtualMachine virtualMachine : allVirtualMachines) {
+            if (virtualMachineIds.contains(virtualMachine.getId())) {
+                virtualMachines.add(virtualMachine);
+            } else {
+                sharedTemplateOptionIds.add(virtualMachine.getTemplateOptions());
+            }
+        }
+        final List<TemplateOptions> templateOptions = new ArrayList<>();
+        for (TemplateOptions candidate : allTemplateOptions) {
+            if (templateOptionIds.contains(candidate.getId()) || (!sharedTemplateOptionIds
+                    .contains(candidate.getId()) && usedBy(candidate, virtualMachines))) {
+                templateOptions.add(candidate);
+            }
+        }
+
+        final DeploymentGraph graph = new DeploymentGraph();
+        for (final Instance instance : instances) {
+            graph.add(node(instance), Collections.emptySet(),
+                    () -> delete(Instance.class, instance));
+        }
+        for (final VirtualMachine virtualMachine : virtualMachines) {
+            final Set<String> dependencies = new HashSet<>();
+            for (Instance instance : instances) {
+                if (virtualMachine.getId().equals(instance.getVirtualMachine())) {
+                    dependencies.add(node(instance));
+                }
+            }
+            graph.add(node(virtualMachine), dependencies,
+                    () -> delete(VirtualMachine.class, virtualMachine));
+        }
+        for (final TemplateOptions candidate : templateOptions) {
+            final Set<String> dependencies = new HashSet<>();
+            for (VirtualMachine virtualMachine : virtualMachines) {
+                if (candidate.getId().equals(virtualMachine.getTemplateOptions())) {
+                    dependencies.add(node(virtualMachine));
+                }
+            }
+            graph.add(node(candidate), dependencies,
+                    () -> delete(TemplateOptions.class, candidate));
+        }
+        if (applicationInstance != null) {
+            final Set<String> dependencies = new HashSet<>();
+            for (Instance instance : instances) {
+                if (applicationInstance.getId().equals(instance.getApplicationInstance())) {
+                    dependencies.add(node(instance));
+                }
+            }
+            graph.add(node(applicationInstance), dependencies,
+                    () -> delete(ApplicationInstance.class, applicationInstance));
+        }
+
+        LOGGER.info("Tearing down " + description + ": " + instances.size() + " instances, "
+                + virtualMachines.size() + " virtual machines, " + templateOptions.size()
+                + " template options.");
+        final Deployment deployment = new Deployment();
+        try {
+            graph.execute(deployment, parallelism, scheduling);
+        } finally {
+            LOGGER.info("Teardown of " + description + ":\n" + deployment.getReport());
+        }
+        return deployment;
+    }
+
+    private <T extends Entity> T delete(Class<T> type, T entity) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                client.controller(type).delete(entity);
+                final Optional<Boolean> deleted = waiter.await(
+                        () -> gone(type, entity) ? Optional.of(true) : Optional.<Boolean>absent(),
+                        DELETE_TIMEOUT_MIN, TimeUnit.MINUTES);
+                checkState(deleted.isPresent(),
+                        type.getSimpleName() + " " + entity.getId() + " was not deleted within "
+                                + DELETE_TIMEOUT_MIN + " minutes.");
+                return entity;
+            } catch (RuntimeException e) {
+                if (goneAfter(e, type, entity)) {
+                    return entity;
+                }
+                if (attempt == ATTEMPTS) {
+                    throw e;
+                }
+                LOGGER.warn("Deleting " + type.getSimpleName() + " " + entity.getId()
+                        + " failed, retrying.", e);
+                try {
+                    Thread.sleep(RETRY_BACKOFF_MILLIS << (attempt - 1));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while deleting.", interrupted);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether the entity does not exist anymore. Only an empty result or a not found
+     * response count as missing, other failures are propagated to the retry of the caller.
+     */
+    private <T extends Entity> boolean gone(Class<T> type, T entity) {
+        try {
+            return client.controller(type).get(entity.getId()) == null;
+        } catch (NotFoundException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Like {@link #gone(Class, Entity)}, but a failing lookup is attached to the failure of the
+     * deletion and leaves the deletion to be retried.
+     */
+    private <T extends Entity> boolean goneAfter(RuntimeException failure, Class<T> type,
+            T entity) {
+        try {
+            return gone(type, entity);
+        } catch (RuntimeException e) {
+            failure.addSuppressed(e);
+            return false;
+        }
+    }
+
+    private static boolean usedBy(TemplateOptions templateOptions,
+            List<VirtualMachine> virtualMachines) {
+        for (VirtualMachine virtualMachine : virtualMachines) {
+            if (templateOptions.getId().equals(virtualMachine.getTemplateOptions())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static String node(Entity entity) {
+        return "delete:" + entity.getClass().getSimpleName() + "#" + entity.getId();
+    }
+}
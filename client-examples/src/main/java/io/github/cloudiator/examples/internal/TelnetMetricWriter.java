@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Streams data points to the telnet port of KairosDB using the plain text protocol {@code put
+ * <metric> <timestamp> <value> <tag=value>...}.
+ * <p>
+ * Lines are encoded into one reused direct buffer which is written to a persistent channel
+ * when it is full or on {@link #flush()}. A broken channel is reopened on the next flush; if
+ * this fails, the buffered lines are dropped and the next reconnect is attempted after {@code
+ * reconnectDelayMillis}. Connecting and writing to the channel give up after {@code
+ * timeoutMillis}, so an unresponsive server cannot stall the writing thread. KairosDB
+ * requires at least one tag per point, points without tags are sent with {@link
+ * #DEFAULT_TAG}.
+ * <p>
+ * A series whose name or tags contain whitespace or are empty would break the protocol and is
+ * rejected. Points with a NaN or infinite value are dropped and counted as invalid.
+ */
+public class TelnetMetricWriter implements MetricWriter {
+
+    public static final int DEFAULT_PORT = 4242;
+    public static final String DEFAULT_TAG = "source=cloudiator";
+
+    private static final Logger LOGGER = LogManager.getLogger(TelnetMetricWriter.class);
+    private static final byte[] PUT = "put ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DEFAULT_TAG_FRAGMENT =
+        (" " + DEFAULT_TAG).getBytes(StandardCharsets.US_ASCII);
+    // largest magnitude of a scaled value whose long is exactly a double
+    private static final double MAX_EXACT_LONG = 1L << 53;
+    // most fraction digits tried when formatting a double
+    private static final int MAX_FRACTION_DIGITS = 15;
+    private static final long[] POWERS_OF_TEN = new long[MAX_FRACTION_DIGITS + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final InetSocketAddress address;
+    private final ByteBuffer buffer;
+    private final long reconnectDelayNanos;
+    private final int timeoutMillis;
+    private SocketChannel channel;
+    // waits for the non blocking channel to become writable
+    private Selector selector;
+    private long nextConnectAttempt = Long.MIN_VALUE;
+    private boolean closed = false;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong invalid = new AtomicLong();
+    // lines currently held by the buffer
+    private long buffered = 0;
+
+    public TelnetMetricWriter(String ip) {
+        this(ip, DEFAULT_PORT, 64 * 1024, 5000, 10000);
+    }
+
+    public TelnetMetricWriter(String ip, int port, int bufferSize, long reconnectDelayMillis,
+        int timeoutMillis) {
+        checkNotNull(ip);
+        checkArgument(bufferSize >= 1024, "bufferSize must be at least 1024 bytes");
+        checkArgument(reconnectDelayMillis >= 0, "reconnectDelayMillis must not be negative");
+        checkArgument(timeoutMillis > 0, "timeoutMillis must be positive");
+        this.address = new InetSocketAddress(ip, port);
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.reconnectDelayNanos = TimeUnit.MILLISECONDS.toNanos(reconnectDelayMillis);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public void write(String metricName, List<Tag> tags, double value) {
+        write(metricName, tags, value, System.currentTimeMillis());
+    }
+
+    @Override
+    public void write(String metricName, List<Tag> tags, double value, long timeStamp) {
+        write(SeriesKey.of(metricName, tags), value, timeStamp);
+    }
+
+    @Override
+    public synchronized void write(SeriesKey series, double value, long timeStamp) {
+        checkState(!closed, "writer is closed");
+        checkArgument(series.isLineSafe(),
+            "Metric name and tags must be non empty and must not contain whitespace: " + series);
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            invalid.incrementAndGet();
+            LOGGER.debug("Dropping data point of " + series + " with value " + value);
+            return;
+        }
+        final long kairosTimeStamp = timeStamp - KairosDbConnection.PULL_DELAY;
+        final int start = buffer.position();
+        try {
+            encode(series, value, kairosTimeStamp);
+        } catch (BufferOverflowException e) {
+            buffer.position(start);
+            flush();
+            try {
+                encode(series, value, kairosTimeStamp);
+            } catch (BufferOverflowException tooLong) {
+                buffer.clear();
+                throw new IllegalArgumentException(
+                    "Data point of " + series + " exceeds the buffer size.");
+            }
+        }
+        buffered++;
+    }
+
+    private void encode(SeriesKey series, double value, long timeStamp) {
+        buffer.put(PUT);
+        buffer.put(series.metricNameBytes());
+        buffer.put((byte) ' ');
+        putLong(timeStamp);
+        buffer.put((byte) ' ');
+        putDouble(value);
+        if (series.tagFragment().length == 0) {
+            buffer.put(DEFAULT_TAG_FRAGMENT);
+        } else {
+            buffer.put(series.tagFragment());
+        }
+        buffer.put((byte) '\n');
+    }
+
+    private void putString(String string) {
+        for (int i = 0; i < string.length(); i++) {
+            final char c = string.charAt(i);
+            if (c >= 0x80) {
+                // rare non ascii strings take the slow path
+                buffer.put(string.substring(i).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            buffer.put((byte) c);
+        }
+    }
+
+    /**
+     * Writes the shortest decimal of at most {@link #MAX_FRACTION_DIGITS} fraction digits
+     * which parses back to exactly the value, always with a fraction so KairosDB stores a
+     * double. Only values without such a decimal fall back to {@link Double#toString(double)}.
+     */
+    private void putDouble(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < Long.MAX_VALUE) {
+            putLong((long) value);
+            buffer.put((byte) '.');
+            buffer.put((byte) '0');
+            return;
+        }
+        for (int digits = 1; digits <= MAX_FRACTION_DIGITS; digits++) {
+            final double scaled = value * POWERS_OF_TEN[digits];
+            if (Math.abs(scaled) >= MAX_EXACT_LONG) {
+                break;
+            }
+            // both operands are exact, so the division rounds like parsing the decimal does
+            if (scaled == Math.rint(scaled) && scaled / POWERS_OF_TEN[digits] == value) {
+                putDecimal((long) scaled, digits);
+                return;
+            }
+        }
+        putString(Double.toString(value));
+    }
+
+    private void putDecimal(long unscaled, int digits) {
+        if (unscaled < 0) {
+            buffer.put((byte) '-');
+            unscaled = -unscaled;
+        }
+        // a scaled product may end in zeros, e.g. 0.07 only becomes exact as 70 / 1000
+        while (digits > 1 && unscaled % 10 == 0) {
+            unscaled /= 10;
+            digits--;
+        }
+        putLong(unscaled / POWERS_OF_TEN[digits]);
+        buffer.put((byte) '.');
+        final long fraction = unscaled % POWERS_OF_TEN[digits];
+        for (long divisor = POWERS_OF_TEN[digits - 1]; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + (fraction / divisor) % 10));
+        }
+    }
+
+    private void putLong(long value) {
+        if (value < 0) {
+            buffer.put((byte) '-');
+            if (value == Long.MIN_VALUE) {
+                putString("9223372036854775808");
+                return;
+            }
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            buffer.put((byte) ('0' + (value / divisor) % 10));
+            divisor /= 10;
+        }
+    }
+
+    /**
+     * Writes all buffered lines to the channel, reconnecting if required.
+     */
+    @Override
+    public synchronized void flush() {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        try {
+            writeBuffer();
+            written.addAndGet(buffered);
+        } catch (IOException first) {
+            closeChannel();
+            try {
+                buffer.rewind();
+                writeBuffer();
+                written.addAndGet(buffered);
+            } catch (IOException e) {
+                closeChannel();
+                dropped.addAndGet(buffered);
+                LOGGER.error("Could not stream " + buffered + " data points to " + address, e);
+            }
+        } finally {
+            buffer.clear();
+            buffered = 0;
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        final SocketChannel socketChannel = connect();
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (buffer.hasRemaining()) {
+            if (socketChannel.write(buffer) > 0) {
+                continue;
+            }
+            final long remaining =
+                TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("Timed out writing to " + address);
+            }
+            selector.select(remaining);
+            selector.selectedKeys().clear();
+        }
+    }
+
+    private SocketChannel connect() throws IOException {
+        if (channel != null && channel.isConnected()) {
+            return channel;
+        }
+        final long now = System.nanoTime();
+        if (nextConnectAttempt != Long.MIN_VALUE && now - nextConnectAttempt < 0) {
+            throw new IOException("Waiting before reconnecting to " + address);
+        }
+        nextConnectAttempt = now + reconnectDelayNanos;
+        SocketChannel socketChannel = SocketChannel.open();
+        try {
+            socketChannel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+            socketChannel.socket().connect(address, timeoutMillis);
+            // writes are bounded by waiting on the selector instead of blocking
+            socketChannel.configureBlocking(false);
+            selector = Selector.open();
+            socketChannel.register(selector, SelectionKey.OP_WRITE);
+        } catch (IOException e) {
+            socketChannel.close();
+            closeSelector();
+            throw e;
+        }
+        nextConnectAttempt = Long.MIN_VALUE;
+        channel = socketChannel;
+        return channel;
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.debug("Could not close channel to " + address);
+        }
+        channel = null;
+        closeSelector();
+    }
+
+    private void closeSelector() {
+        if (selector == null) {
+            return;
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOGGER.debug("Could not close selector of " + address);
+        }
+        selector = null;
+    }
+
+    /**
+     * @return the number of data points written to the channel.
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return the number of data points lost because the channel was not available.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of data points dropped because their value was NaN or infinite.
+     */
+    public long getInvalid() {
+        return invalid.get();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        closeChannel();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.uniulm.omi.cloudiator.colosseum.client.Client;
+import de.uniulm.omi.cloudiator.colosseum.client.entities.*;
+import de.uniulm.omi.cloudiator.colosseum.client.entities.internal.Entity;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Resolves the virtual machine templates of placements.
+ * <p>
+ * The location, image and hardware of a cloud are discovered independently by the server, so
+ * the resolver waits for all three at the same time; a template is created as soon as the
+ * last of them appears. Templates of several placements are resolved in one pass.
+ */
+public class TemplateResolver {
+
+    private final Client client;
+    private final EntityCache entityCache;
+    private final long timeout;
+    private final TimeUnit timeoutUnit;
+
+    public TemplateResolver(Client client, EntityCache entityCache, long timeout,
+            TimeUnit timeoutUnit) {
+        checkNotNull(client);
+        checkNotNull(entityCache);
+        checkNotNull(timeoutUnit);
+        this.client = client;
+        this.entityCache = entityCache;
+        this.timeout = timeout;
+        this.timeoutUnit = timeoutUnit;
+    }
+
+    public VirtualMachineTemplate resolve(Placement placement) {
+        final ExecutorService executor = newExecutor(3);
+        try {
+            return join(resolve(placement, executor));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Resolves the templates of all placements concurrently.
+     *
+     * @param parallelism the maximum number of entities waited for at the same time.
+     * @throws IllegalStateException if a template could not be resolved, after all others
+     *                               finished.
+     */
+    public Map<Placement, VirtualMachineTemplate> resolveAll(Collection<Placement> placements,
+            int parallelism) {
+        checkArgument(parallelism > 0, "parallelism must be positive");
+        final ExecutorService executor = newExecutor(parallelism);
+        try {
+            final Map<Placement, CompletableFuture<VirtualMachineTemplate>> futures =
+                    new LinkedHashMap<>();
+            for (Placement placement : placements) {
+                if (!futures.containsKey(placement)) {
+                    futures.put(placement, resolve(placement, executor));
+                }
+            }
+            // wait for all, failures are reported below
+            CompletableFuture
+                    .allOf(futures.values().toArray(new CompletableFuture[futures.size()]))
+                    .exceptionally(throwable -> null).join();
+
+            final Map<Placement, VirtualMachineTemplate> templates = new LinkedHashMap<>();
+            for (Placement placement : futures.keySet()) {
+                templates.put(placement, join(futures.get(placement)));
+            }
+            return templates;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private CompletableFuture<VirtualMachineTemplate> resolve(final Placement placement,
+            Executor executor) {
+
+        final ConfigurationLoader.CloudConfiguration cloudConfiguration = placement.getCloud();
+        final Cloud cloud =
+                entityCache.get(EntityCache.CLOUD_BY_NAME, cloudConfiguration.getName()).get();
+        final String locationId = placement.getLocationId();
+
+        final CompletableFuture<Location> location = CompletableFuture.supplyAsync(
+                () -> waitFor(EntityCache.LOCATION_BY_CLOUD_AND_PROVIDER_ID,
+                        EntityCache.key(cloud.getId(), locationId)), executor);
+        final CompletableFuture<Image> image = CompletableFuture.supplyAsync(
+                () -> waitFor(EntityCache.IMAGE_BY_CLOUD_AND_PROVIDER_ID,
+                        EntityCache.key(cloud.getId(), cloudConfiguration.getImageId())), executor);
+        final CompletableFuture<Hardware> hardware = CompletableFuture.supplyAsync(
+                () -> waitFor(EntityCache.HARDWARE_BY_CLOUD_AND_PROVIDER_ID,
+                        EntityCache.key(cloud.getId(), placement.getHardwareId())),
+                executor);
+
+        return CompletableFuture.allOf(location, image, hardware).thenApply(
+                ignored -> template(new VirtualMachineTemplateBuilder().cloud(cloud.getId())
+                        .location(location.join().getId()).image(image.join().getId())
+                        .hardware(hardware.join().getId()).build()));
+    }
+
+    private VirtualMachineTemplate template(VirtualMachineTemplate desired) {
+        final Optional<VirtualMachineTemplate> existing =
+                entityCache.get(EntityCache.VIRTUAL_MACHINE_TEMPLATE_BY_COMPONENTS,
+                        EntityCache.VIRTUAL_MACHINE_TEMPLATE_BY_COMPONENTS.keyOf(desired));
+        if (existing.isPresent()) {
+            return existing.get();
+        }
+        final VirtualMachineTemplate template =
+                client.controller(VirtualMachineTemplate.class).updateOrCreate(desired);
+        entityCache.put(VirtualMachineTemplate.class, template);
+        return template;
+    }
+
+    private <T extends Entity> T waitFor(EntityCache.Index<T> index, String key) {
+        final Optional<T> entity = entityCache.waitAndGet(index, key, timeout, timeoutUnit);
+        checkState(entity.isPresent(),
+                "Could not find " + index.getType().getSimpleName() + " " + key);
+        return entity.get();
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static ExecutorService newExecutor(int threads) {
+        return Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("template-resolver-%d").setDaemon(true)
+                        .build());
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.Nullable;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Declarative description of an application: its components, which required port is served by
+ * which provided port, and the template options of its virtual machines.
+ * <p>
+ * A topology only describes the desired state, the {@link TopologyExecutor} creates it.
+ */
+public class Topology {
+
+    private final String application;
+    private final List<TopologyComponent> components;
+    private final List<Link> links;
+    private final Map<String, String> tags;
+    @Nullable
+    private final String userData;
+
+    Topology(String application, List<TopologyComponent> components, List<Link> links,
+            Map<String, String> tags, @Nullable String userData) {
+        checkNotNull(application, "application is null");
+        this.application = application;
+        this.components = ImmutableList.copyOf(components);
+        this.links = ImmutableList.copyOf(links);
+        this.tags = ImmutableMap.copyOf(tags);
+        this.userData = userData;
+        validate();
+    }
+
+    private void validate() {
+        final Set<String> names = new HashSet<>();
+        final Set<String> provided = new HashSet<>();
+        final Set<String> required = new HashSet<>();
+        for (TopologyComponent component : components) {
+            checkArgument(names.add(component.getName()),
+                    "Duplicate component " + component.getName());
+            for (TopologyComponent.ProvidedPort port : component.getProvidedPorts()) {
+                checkArgument(provided.add(port.getName()) && !required.contains(port.getName()),
+                        "Duplicate port " + port.getName());
+            }
+            for (TopologyComponent.RequiredPort port : component.getRequiredPorts()) {
+                checkArgument(required.add(port.getName()) && !provided.contains(port.getName()),
+                        "Duplicate port " + port.getName());
+            }
+        }
+        for (Link link : links) {
+            checkArgument(required.contains(link.getRequiredPort()),
+                    "Unknown required port " + link.getRequiredPort());
+            checkArgument(provided.contains(link.getProvidedPort()),
+                    "Unknown provided port " + link.getProvidedPort());
+        }
+    }
+
+    /**
+     * @return the name of the application.
+     */
+    public String getApplication() {
+        return application;
+    }
+
+    public List<TopologyComponent> getComponents() {
+        return components;
+    }
+
+    public List<Link> getLinks() {
+        return links;
+    }
+
+    /**
+     * @return the tags of all virtual machines of the topology.
+     */
+    public Map<String, String> getTags() {
+        return tags;
+    }
+
+    @Nullable
+    public String getUserData() {
+        return userData;
+    }
+
+
+    /**
+     * A communication from a required to a provided port.
+     */
+    public static class Link {
+
+        private final String requiredPort;
+        private final String providedPort;
+
+        public Link(String requiredPort, String providedPort) {
+            checkNotNull(requiredPort);
+            checkNotNull(providedPort);
+            this.requiredPort = requiredPort;
+            this.providedPort = providedPort;
+        }
+
+        public String getRequiredPort() {
+            return requiredPort;
+        }
+
+        public String getProvidedPort() {
+            return providedPort;
+        }
+
+        @Override
+        public String toString() {
+            return requiredPort + "->" + providedPort;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TopologyBuilder {
+
+    private String application;
+    private final List<TopologyComponent> components = new ArrayList<>();
+    private final List<Topology.Link> links = new ArrayList<>();
+    private final Map<String, String> tags = new LinkedHashMap<>();
+    private String userData;
+
+    public TopologyBuilder application(String application) {
+        this.application = application;
+        return this;
+    }
+
+    public TopologyBuilder component(TopologyComponent component) {
+        this.components.add(component);
+        return this;
+    }
+
+    /**
+     * Connects the required port to the provided port.
+     */
+    public TopologyBuilder communication(String requiredPort, String providedPort) {
+        this.links.add(new Topology.Link(requiredPort, providedPort));
+        return this;
+    }
+
+    public TopologyBuilder tag(String key, String value) {
+        this.tags.put(key, value);
+        return this;
+    }
+
+    public TopologyBuilder userData(String userData) {
+        this.userData = userData;
+        return this;
+    }
+
+    public Topology createTopology() {
+        return new Topology(application, components, links, tags, userData);
+    }
+}
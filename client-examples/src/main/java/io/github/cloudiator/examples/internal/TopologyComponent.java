@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A component of a {@link Topology}: its lifecycle, its ports and where and how often it is
+ * deployed.
+ */
+public class TopologyComponent {
+
+    private final String name;
+    @Nullable
+    private final String preInstall;
+    @Nullable
+    private final String install;
+    @Nullable
+    private final String postInstall;
+    @Nullable
+    private final String start;
+    private final List<ProvidedPort> providedPorts;
+    private final List<RequiredPort> requiredPorts;
+    private final ConfigurationLoader.CloudConfiguration cloud;
+    @Nullable
+    private final String locationId;
+    private final String virtualMachineName;
+    private final int instances;
+
+    TopologyComponent(String name, @Nullable String preInstall, @Nullable String install,
+            @Nullable String postInstall, @Nullable String start, List<ProvidedPort> providedPorts,
+            List<RequiredPort> requiredPorts, ConfigurationLoader.CloudConfiguration cloud,
+            @Nullable String locationId, String virtualMachineName, int instances) {
+        checkNotNull(name, "name is null");
+        checkNotNull(cloud, "cloud of " + name + " is null");
+        checkArgument(locationId == null || cloud.getLocationIds().contains(locationId),
+                "Unknown location " + locationId + " of " + name);
+        checkNotNull(virtualMachineName);
+        checkArgument(instances >= 0, "instances must not be negative");
+        this.name = name;
+        this.preInstall = preInstall;
+        this.install = install;
+        this.postInstall = postInstall;
+        this.start = start;
+        this.providedPorts = ImmutableList.copyOf(providedPorts);
+        this.requiredPorts = ImmutableList.copyOf(requiredPorts);
+        this.cloud = cloud;
+        this.locationId = locationId;
+        this.virtualMachineName = virtualMachineName;
+        this.instances = instances;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Nullable
+    public String getPreInstall() {
+        return preInstall;
+    }
+
+    @Nullable
+    public String getInstall() {
+        return install;
+    }
+
+    @Nullable
+    public String getPostInstall() {
+        return postInstall;
+    }
+
+    @Nullable
+    public String getStart() {
+        return start;
+    }
+
+    public List<ProvidedPort> getProvidedPorts() {
+        return providedPorts;
+    }
+
+    public List<RequiredPort> getRequiredPorts() {
+        return requiredPorts;
+    }
+
+    /**
+     * @return the cloud the instances of the component are placed in.
+     */
+    public ConfigurationLoader.CloudConfiguration getCloud() {
+        return cloud;
+    }
+
+    /**
+     * @return the location of the cloud the instances are placed in, absent if the location is
+     * chosen by the {@link PlacementService} during the deployment.
+     */
+    @Nullable
+    public String getLocationId() {
+        return locationId;
+    }
+
+    /**
+     * @return the prefix of the names of the virtual machines of the component.
+     */
+    public String getVirtualMachineName() {
+        return virtualMachineName;
+    }
+
+    public int getInstances() {
+        return instances;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+
+    public static class ProvidedPort {
+
+        private final String name;
+        private final int port;
+
+        public ProvidedPort(String name, int port) {
+            checkNotNull(name);
+            this.name = name;
+            this.port = port;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getPort() {
+            return port;
+        }
+    }
+
+
+    public static class RequiredPort {
+
+        private final String name;
+        private final boolean mandatory;
+        @Nullable
+        private final String updateAction;
+
+        public RequiredPort(String name, boolean mandatory, @Nullable String updateAction) {
+            checkNotNull(name);
+            this.name = name;
+            this.mandatory = mandatory;
+            this.updateAction = updateAction;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isMandatory() {
+            return mandatory;
+        }
+
+        @Nullable
+        public String getUpdateAction() {
+            return updateAction;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TopologyComponentBuilder {
+
+    private String name;
+    private String preInstall;
+    private String install;
+    private String postInstall;
+    private String start;
+    private final List<TopologyComponent.ProvidedPort> providedPorts = new ArrayList<>();
+    private final List<TopologyComponent.RequiredPort> requiredPorts = new ArrayList<>();
+    private ConfigurationLoader.CloudConfiguration cloud;
+    private String locationId;
+    private String virtualMachineName;
+    private int instances = 1;
+
+    public TopologyComponentBuilder name(String name) {
+        this.name = name;
+        return this;
+    }
+
+    public TopologyComponentBuilder preInstall(String preInstall) {
+        this.preInstall = preInstall;
+        return this;
+    }
+
+    public TopologyComponentBuilder install(String install) {
+        this.install = install;
+        return this;
+    }
+
+    public TopologyComponentBuilder postInstall(String postInstall) {
+        this.postInstall = postInstall;
+        return this;
+    }
+
+    public TopologyComponentBuilder start(String start) {
+        this.start = start;
+        return this;
+    }
+
+    public TopologyComponentBuilder providedPort(String name, int port) {
+        this.providedPorts.add(new TopologyComponent.ProvidedPort(name, port));
+        return this;
+    }
+
+    public TopologyComponentBuilder requiredPort(String name, boolean mandatory) {
+        return requiredPort(name, mandatory, null);
+    }
+
+    public TopologyComponentBuilder requiredPort(String name, boolean mandatory,
+            String updateAction) {
+        this.requiredPorts.add(new TopologyComponent.RequiredPort(name, mandatory, updateAction));
+        return this;
+    }
+
+    /**
+     * Places the component in the cloud, its location is chosen during the deployment.
+     */
+    public TopologyComponentBuilder cloud(ConfigurationLoader.CloudConfiguration cloud) {
+        this.cloud = cloud;
+        this.locationId = null;
+        return this;
+    }
+
+    public TopologyComponentBuilder placement(Placement placement) {
+        this.cloud = placement.getCloud();
+        this.locationId = placement.getLocationId();
+        return this;
+    }
+
+    /**
+     * Defaults to the name of the component followed by "VM".
+     */
+    public TopologyComponentBuilder virtualMachineName(String virtualMachineName) {
+        this.virtualMachineName = virtualMachineName;
+        return this;
+    }
+
+    public TopologyComponentBuilder instances(int instances) {
+        this.instances = instances;
+        return this;
+    }
+
+    public TopologyComponent createTopologyComponent() {
+        return new TopologyComponent(name, preInstall, install, postInstall, start, providedPorts,
+                requiredPorts, cloud, locationId,
+                virtualMachineName != null ? virtualMachineName : name + "VM", instances);
+    }
+}
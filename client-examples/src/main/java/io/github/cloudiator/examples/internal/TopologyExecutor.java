@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import com.google.common.collect.ImmutableSet;
+import de.uniulm.omi.cloudiator.colosseum.client.Client;
+import de.uniulm.omi.cloudiator.colosseum.client.entities.*;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Deploys a {@link Topology}.
+ * <p>
+ * Every entity of the topology is a step of a {@link DeploymentGraph} depending on the entities
+ * it references, e.g. an application component depends on its application, lifecycle component
+ * and template, an instance on its virtual machine and the communications of its component.
+ * Independent steps, like the lifecycle components and templates of all components, are created
+ * in parallel. With {@link DeploymentGraph.Scheduling#PIPELINED} scheduling all virtual
+ * machines are created as soon as their templates exist and each instance right after its own
+ * virtual machine, so the deployment takes about as long as its slowest component.
+ * <p>
+ * Components without a fixed location are placed by the {@link PlacementService} of the
+ * {@link CloudHelper}, which also receives the provisioning latency of every tracked instance.
+ */
+public class TopologyExecutor {
+
+    private static final Logger LOGGER = LogManager.getLogger(TopologyExecutor.class);
+
+    static final String APPLICATION = "application";
+    static final String APPLICATION_INSTANCE = "applicationInstance";
+    static final String TEMPLATE_OPTIONS = "templateOptions";
+
+    private final Client client;
+    private final CloudHelper cloudHelper;
+    private final Reconciler reconciler;
+    private final PlacementService placementService;
+    private final int parallelism;
+    private final DeploymentGraph.Scheduling scheduling;
+    private final Random random = new Random();
+
+    /**
+     * @param parallelism the maximum number of colosseum calls issued at the same time.
+     */
+    public TopologyExecutor(Client client, CloudHelper cloudHelper, int parallelism) {
+        this(client, cloudHelper, parallelism, DeploymentGraph.Scheduling.WAVES);
+    }
+
+    public TopologyExecutor(Client client, CloudHelper cloudHelper, int parallelism,
+            DeploymentGraph.Scheduling scheduling) {
+        checkNotNull(client);
+        checkNotNull(cloudHelper);
+        checkArgument(parallelism > 0, "parallelism must be positive");
+        checkNotNull(scheduling);
+        this.client = client;
+        this.cloudHelper = cloudHelper;
+        this.reconciler = cloudHelper.getReconciler();
+        this.placementService = cloudHelper.getPlacementService();
+        this.parallelism = parallelism;
+        this.scheduling = scheduling;
+    }
+
+    /**
+     * Creates the entities of the topology.
+     *
+     * @param instances whether virtual machines and instances are started, otherwise only the
+     *                  application model is created.
+     * @throws IllegalStateException if a step failed, no further steps are started then.
+     */
+    public Deployment deploy(Topology topology, boolean instances) {
+        return deploy(topology, instances, null);
+    }
+
+    /**
+     * Creates the entities of the topology, every created instance is tracked by the waiter, see
+     * {@link Deployment#getReadiness()}.
+     */
+    public Deployment deploy(Topology topology, boolean instances,
+            @Nullable InstanceGroupWaiter readiness) {
+        final Deployment deployment = new Deployment();
+        try {
+            plan(topology, instances, readiness, deployment)
+                    .execute(deployment, parallelism, scheduling);
+        } finally {
+            LOGGER.info("Deployment of " + topology.getApplication() + ":\n" + deployment
+                    .getReport());
+        }
+        return deployment;
+    }
+
+    /**
+     * @return the steps creating the topology, storing their entities in the deployment.
+     */
+    public DeploymentGraph plan(final Topology topology, boolean instances,
+            @Nullable final InstanceGroupWaiter readiness, final Deployment deployment) {
+        checkNotNull(topology);
+        checkNotNull(deployment);
+        final DeploymentGraph graph = new DeploymentGraph();
+
+        graph.add(APPLICATION, Collections.emptySet(), () -> reconciler.reconcile(
+                EntityCache.APPLICATION_BY_NAME,
+                new ApplicationBuilder().name(topology.getApplication()).build()));
+
+        final Map<String, TopologyComponent> componentByPort = new HashMap<>();
+        for (final TopologyComponent component : topology.getComponents()) {
+            addComponent(graph, component, deployment);
+            for (TopologyComponent.ProvidedPort port : component.getProvidedPorts()) {
+                componentByPort.put(port.getName(), component);
+            }
+            for (TopologyComponent.RequiredPort port : component.getRequiredPorts()) {
+                componentByPort.put(port.getName(), component);
+            }
+        }
+
+        final Map<TopologyComponent, List<String>> communications = new HashMap<>();
+        for (final Topology.Link link : topology.getLinks()) {
+            final String node = communication(link);
+            graph.add(node,
+                    ImmutableSet.of(requiredPort(link.getRequiredPort()),
+                            providedPort(link.getProvidedPort())),
+                    () -> reconciler.reconcile(EntityCache.COMMUNICATION_BY_PORTS,
+                            new CommunicationBuilder().requiredPort(deployment
+                                    .get(requiredPort(link.getRequiredPort()), PortRequired.class)
+                                    .getId()).providedPort(deployment
+                                    .get(providedPort(link.getProvidedPort()), PortProvided.class)
+                                    .getId()).build()));
+            communications.computeIfAbsent(componentByPort.get(link.getRequiredPort()),
+                    component -> new ArrayList<>()).add(node);
+            communications.computeIfAbsent(componentByPort.get(link.getProvidedPort()),
+                    component -> new ArrayList<>()).add(node);
+        }
+
+        if (!instances) {
+            return graph;
+        }
+
+        final boolean templateOptions =
+                !topology.getTags().isEmpty() || topology.getUserData() != null;
+        if (templateOptions) {
+            graph.add(TEMPLATE_OPTIONS, Collections.emptySet(), () -> {
+                final TemplateOptionsBuilder builder = new TemplateOptionsBuilder();
+                for (Map.Entry<String, String> tag : topology.getTags().entrySet()) {
+                    builder.addTag(tag.getKey(), tag.getValue());
+                }
+                if (topology.getUserData() != null) {
+                    builder.userData(topology.getUserData());
+                }
+                return client.controller(TemplateOptions.class).create(builder.build());
+            });
+        }
+        graph.add(APPLICATION_INSTANCE, Collections.singleton(APPLICATION),
+                () -> client.controller(ApplicationInstance.class).create(
+                        new ApplicationInstanceBuilder()
+                                .application(deployment.getApplication().getId()).build()));
+
+        for (final TopologyComponent component : topology.getComponents()) {
+            final List<String> componentCommunications =
+                    communications.getOrDefault(component, Collections.emptyList());
+            for (int i = 0; i < component.getInstances(); i++) {
+                addInstance(graph, component, i, templateOptions, componentCommunications,
+                        readiness, deployment);
+            }
+        }
+        return graph;
+    }
+
+    private void addComponent(DeploymentGraph graph, final TopologyComponent component,
+            final Deployment deployment) {
+        final String name = component.getName();
+
+        graph.add(lifecycleComponent(name), Collections.emptySet(), () -> reconciler
+                .reconcile(EntityCache.LIFECYCLE_COMPONENT_BY_NAME,
+                        new LifecycleComponentBuilder().name(name)
+                                .preInstall(component.getPreInstall())
+                                .install(component.getInstall())
+                                .postInstall(component.getPostInstall())
+                                .start(component.getStart()).build()));
+
+        graph.add(placement(name), Collections.emptySet(), () -> component.getLocationId() != null ?
+                new Placement(component.getCloud(), component.getLocationId()) :
+                placementService.choose(component.getCloud()));
+
+        graph.add(template(name), Collections.singleton(placement(name)),
+                () -> cloudHelper.createTemplate(deployment.getPlacement(name)));
+
+        graph.add(applicationComponent(name),
+                ImmutableSet.of(APPLICATION, lifecycleComponent(name), template(name)),
+                () -> reconciler.reconcile(EntityCache.APPLICATION_COMPONENT_BY_REFERENCES,
+                        new ApplicationComponentBuilder()
+                                .application(deployment.getApplication().getId())
+                                .component(deployment.getLifecycleComponent(name).getId())
+                                .virtualMachineTemplate(deployment
+                                        .get(template(name), VirtualMachineTemplate.class)
+                                        .getId()).build()));
+
+        for (final TopologyComponent.ProvidedPort port : component.getProvidedPorts()) {
+            graph.add(providedPort(port.getName()),
+                    Collections.singleton(applicationComponent(name)),
+                    () -> reconciler.reconcile(EntityCache.PORT_PROVIDED_BY_COMPONENT_AND_NAME,
+                            new PortProvidedBuilder().name(port.getName()).applicationComponent(
+                                    deployment.getApplicationComponent(name).getId())
+                                    .port(port.getPort()).build()));
+        }
+
+        for (final TopologyComponent.RequiredPort port : component.getRequiredPorts()) {
+            graph.add(requiredPort(port.getName()),
+                    Collections.singleton(applicationComponent(name)), () -> {
+                        final PortRequiredBuilder builder =
+                                new PortRequiredBuilder().name(port.getName())
+                                        .applicationComponent(
+                                                deployment.getApplicationComponent(name).getId())
+                                        .isMandatory(port.isMandatory());
+                        if (port.getUpdateAction() != null) {
+                            builder.updateAction(port.getUpdateAction());
+                        }
+                        return reconciler
+                                .reconcile(EntityCache.PORT_REQUIRED_BY_COMPONENT_AND_NAME,
+                                        builder.build());
+                    });
+        }
+    }
+
+    private void addInstance(DeploymentGraph graph, final TopologyComponent component,
+            final int index, final boolean templateOptions, List<String> communications,
+            @Nullable final InstanceGroupWaiter readiness, final Deployment deployment) {
+        final String name = component.getName();
+        final String virtualMachine = virtualMachine(name, index);
+        final String instance = instance(name, index);
+
+        final Set<String> virtualMachineDependencies = templateOptions ?
+                ImmutableSet.of(template(name), TEMPLATE_OPTIONS) :
+                Collections.singleton(template(name));
+        graph.add(virtualMachine, virtualMachineDependencies, () -> {
+            final VirtualMachineBuilder builder = VirtualMachineBuilder
+                    .of(deployment.get(template(name), VirtualMachineTemplate.class))
+                    .name(component.getVirtualMachineName() + random.nextInt(100));
+            if (templateOptions) {
+                builder.templateOptions(
+                        deployment.get(TEMPLATE_OPTIONS, TemplateOptions.class).getId());
+            }
+            final long start = System.currentTimeMillis();
+            try {
+                return client.controller(VirtualMachine.class).create(builder.build());
+            } catch (RuntimeException e) {
+                placementService.record(deployment.getPlacement(name),
+                        System.currentTimeMillis() - start, false);
+                throw e;
+            }
+        });
+
+        graph.add(instance, ImmutableSet.<String>builder()
+                .add(virtualMachine, applicationComponent(name), APPLICATION_INSTANCE)
+                .addAll(communications).build(), () -> {
+            final Placement placement = deployment.getPlacement(name);
+            final Instance created;
+            try {
+                created = client.controller(Instance.class).create(new InstanceBuilder()
+                        .applicationComponent(deployment.getApplicationComponent(name).getId())
+                        .applicationInstance(deployment
+                                .get(APPLICATION_INSTANCE, ApplicationInstance.class).getId())
+                        .virtualMachine(
+                                deployment.get(virtualMachine, VirtualMachine.class).getId())
+                        .build());
+            } catch (RuntimeException e) {
+                placementService
+                        .record(placement, deployment.millisSinceStart(virtualMachine), false);
+                throw e;
+            }
+            if (readiness != null) {
+                // the provisioning latency of the placement, from the creation of the virtual
+                // machine until the instance started
+                final CompletableFuture<Instance> started = readiness.track(created);
+                deployment.track(instance, started);
+                started.whenComplete((ignored, throwable) -> placementService
+                        .record(placement, deployment.millisSinceStart(virtualMachine),
+                                throwable == null));
+            } else {
+                placementService.release(placement);
+            }
+            return created;
+        });
+    }
+
+    static String lifecycleComponent(String component) {
+        return "lifecycleComponent:" + component;
+    }
+
+    static String placement(String component) {
+        return "placement:" + component;
+    }
+
+    static String template(String component) {
+        return "template:" + component;
+    }
+
+    static String applicationComponent(String component) {
+        return "applicationComponent:" + component;
+    }
+
+    static String providedPort(String port) {
+        return "portProvided:" + port;
+    }
+
+    static String requiredPort(String port) {
+        return "portRequired:" + port;
+    }
+
+    static String communication(Topology.Link link) {
+        return "communication:" + link;
+    }
+
+    static String virtualMachine(String component, int index) {
+        return "virtualMachine:" + component + "#" + index;
+    }
+
+    static String instance(String component, int index) {
+        return "instance:" + component + "#" + index;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency and poll count histograms of the waits of a {@link Waiter}.
+ */
+public class WaitStatistics {
+
+    private final Histogram latencyMillis = new Histogram();
+    private final Histogram polls = new Histogram();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong notifications = new AtomicLong();
+
+    void record(long latencyMillis, int polls, boolean success) {
+        if (!success) {
+            timeouts.incrementAndGet();
+            return;
+        }
+        this.latencyMillis.record(latencyMillis);
+        this.polls.record(polls);
+    }
+
+    void notified() {
+        notifications.incrementAndGet();
+    }
+
+    /**
+     * @return the time until successful waits finished.
+     */
+    public Histogram getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    /**
+     * @return the number of polls of successful waits.
+     */
+    public Histogram getPolls() {
+        return polls;
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    /**
+     * @return the number of notifications which woke up a waiting poll.
+     */
+    public long getNotifications() {
+        return notifications.get();
+    }
+
+    @Override
+    public String toString() {
+        return "latency[ms]: " + latencyMillis + ", polls: " + polls + ", timeouts: " + timeouts
+                .get() + ", notifications: " + notifications.get();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import com.google.common.base.Optional;
+import de.uniulm.omi.cloudiator.colosseum.client.Client;
+import de.uniulm.omi.cloudiator.colosseum.client.entities.internal.Entity;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Polls until a condition holds or a deadline passes.
+ * <p>
+ * Polls come in quick succession during a short first phase, as many entities appear within
+ * seconds on fast clouds, and then back off exponentially with jitter so that slow clouds and
+ * many parallel waits do not load the server. If a {@link NotificationSource} is given, a
+ * notification triggers the next poll immediately.
+ */
+public class Waiter {
+
+    private final long fastPollIntervalMillis;
+    private final long fastPollPhaseMillis;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final double multiplier;
+    private final double jitter;
+    @Nullable
+    private final NotificationSource notificationSource;
+    private final WaitStatistics statistics = new WaitStatistics();
+
+    Waiter(long fastPollIntervalMillis, long fastPollPhaseMillis, long initialBackoffMillis,
+            long maxBackoffMillis, double multiplier, double jitter,
+            @Nullable NotificationSource notificationSource) {
+        this.fastPollIntervalMillis = fastPollIntervalMillis;
+        this.fastPollPhaseMillis = fastPollPhaseMillis;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+        this.notificationSource = notificationSource;
+    }
+
+    /**
+     * Polls until the poll returns a value.
+     * <p>
+     * Exceptions of the poll abort the wait, e.g. if the awaited entity failed.
+     *
+     * @return the value, absent if the timeout passed first.
+     * @throws IllegalStateException if the thread was interrupted.
+     */
+    public <T> Optional<T> await(Supplier<Optional<T>> poll, long timeout, TimeUnit unit) {
+        checkNotNull(poll);
+        checkArgument(timeout >= 0, "timeout must not be negative");
+        checkNotNull(unit);
+
+        final long start = System.nanoTime();
+        final long deadline = start + unit.toNanos(timeout);
+        final Semaphore wakeUp = new Semaphore(0);
+        final Runnable unsubscribe = notificationSource == null ? null :
+                notificationSource.subscribe(() -> {
+                    if (wakeUp.availablePermits() == 0) {
+                        wakeUp.release();
+                    }
+                });
+        try {
+            int polls = 0;
+            long backoff = initialBackoffMillis;
+            while (true) {
+                polls++;
+                final Optional<T> result = poll.get();
+                final long now = System.nanoTime();
+                if (result.isPresent() || now - deadline >= 0) {
+                    statistics.record(TimeUnit.NANOSECONDS.toMillis(now - start), polls,
+                            result.isPresent());
+                    return result;
+                }
+
+                long delay;
+                if (TimeUnit.NANOSECONDS.toMillis(now - start) < fastPollPhaseMillis) {
+                    delay = fastPollIntervalMillis;
+                } else {
+                    delay = jitter(backoff);
+                    backoff = Math.min((long) (backoff * multiplier), maxBackoffMillis);
+                }
+                delay = Math.min(delay, TimeUnit.NANOSECONDS.toMillis(deadline - now) + 1);
+                if (wakeUp.tryAcquire(delay, TimeUnit.MILLISECONDS)) {
+                    statistics.notified();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting.", e);
+        } finally {
+            if (unsubscribe != null) {
+                unsubscribe.run();
+            }
+        }
+    }
+
+    /**
+     * Lists the entities of the type until one matches the predicate, the replacement of
+     * {@code waitAndGetSingle}.
+     */
+    public <T extends Entity> Optional<T> awaitSingle(final Client client, final Class<T> type,
+            final Predicate<T> predicate, long timeout, TimeUnit unit) {
+        checkNotNull(client);
+        checkNotNull(type);
+        checkNotNull(predicate);
+        return await(() -> {
+            for (T entity : client.controller(type).getList()) {
+                if (predicate.test(entity)) {
+                    return Optional.of(entity);
+                }
+            }
+            return Optional.absent();
+        }, timeout, unit);
+    }
+
+    public WaitStatistics getStatistics() {
+        return statistics;
+    }
+
+    private long jitter(long backoff) {
+        if (jitter == 0) {
+            return backoff;
+        }
+        return (long) (backoff * ThreadLocalRandom.current().nextDouble(1 - jitter, 1 + jitter));
+    }
+
+    /**
+     * A source of notifications about remote changes, e.g. a message queue of the server.
+     */
+    public interface NotificationSource {
+
+        /**
+         * Registers a listener called whenever the awaited state may have changed. The listener
+         * may be called from any thread and has to return quickly.
+         *
+         * @return unregisters the listener.
+         */
+        Runnable subscribe(Runnable listener);
+    }
+}
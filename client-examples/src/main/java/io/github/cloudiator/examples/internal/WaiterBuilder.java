@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2014-2016 University of Ulm
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.cloudiator.examples.internal;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Builder for a {@link Waiter}, the defaults poll every 500ms during the first 5 seconds and
+ * then back off from 1 to at most 15 seconds.
+ */
+public class WaiterBuilder {
+
+    static final long DEFAULT_FAST_POLL_INTERVAL_MILLIS = 500;
+    static final long DEFAULT_FAST_POLL_PHASE_MILLIS = 5000;
+    static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 1000;
+    static final long DEFAULT_MAX_BACKOFF_MILLIS = 15000;
+    static final double DEFAULT_MULTIPLIER = 2;
+    static final double DEFAULT_JITTER = 0.2;
+
+    private long fastPollIntervalMillis = DEFAULT_FAST_POLL_INTERVAL_MILLIS;
+    private long fastPollPhaseMillis = DEFAULT_FAST_POLL_PHASE_MILLIS;
+    private long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+    private long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+    private double multiplier = DEFAULT_MULTIPLIER;
+    private double jitter = DEFAULT_JITTER;
+    @Nullable
+    private Waiter.NotificationSource notificationSource;
+
+    public WaiterBuilder fastPollIntervalMillis(long fastPollIntervalMillis) {
+        this.fastPollIntervalMillis = fastPollIntervalMillis;
+        return this;
+    }
+
+    /**
+     * Polls every fast poll interval until this time passed, 0 disables the fast phase.
+     */
+    public WaiterBuilder fastPollPhaseMillis(long fastPollPhaseMillis) {
+        this.fastPollPhaseMillis = fastPollPhaseMillis;
+        return this;
+    }
+
+    public WaiterBuilder initialBackoffMillis(long initialBackoffMillis) {
+        this.initialBackoffMillis = initialBackoffMillis;
+        return this;
+    }
+
+    public WaiterBuilder maxBackoffMillis(long maxBackoffMillis) {
+        this.maxBackoffMillis = maxBackoffMillis;
+        return this;
+    }
+
+    public WaiterBuilder multiplier(double multiplier) {
+        this.multiplier = multiplier;
+        return this;
+    }
+
+    /**
+     * Randomizes every backoff by up to the given fraction in both directions.
+     */
+    public WaiterBuilder jitter(double jitter) {
+        this.jitter = jitter;
+        return this;
+    }
+
+    public WaiterBuilder notificationSource(
+            @Nullable Waiter.NotificationSource notificationSource) {
+        this.notificationSource = notificationSource;
+        return this;
+    }
+
+    public Waiter createWaiter() {
+        checkArgument(fastPollIntervalMillis > 0, "fastPollIntervalMillis must be positive");
+        checkArgument(fastPollPhaseMillis >= 0, "fastPollPhaseMillis must not be negative");
+        checkArgument(initialBackoffMillis > 0, "initialBackoffMillis must be positive");
+        checkArgument(maxBackoffMillis >= initialBackoffMillis,
+                "maxBackoffMillis must not be below initialBackoffMillis");
+        checkArgument(multiplier >= 1, "multiplier must be at least 1");
+        checkArgument(jitter >= 0 && jitter < 1, "jitter must be in [0,1)");
+        return new Waiter(fastPollIntervalMillis, fastPollPhaseMillis, initialBackoffMillis,
+                maxBackoffMillis, multiplier, jitter, notificationSource);
+    }
+}